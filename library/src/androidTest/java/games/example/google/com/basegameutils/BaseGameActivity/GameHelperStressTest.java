@@ -0,0 +1,540 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.games.GamesActivityResultCodes;
+import com.google.android.gms.games.multiplayer.Invitation;
+import com.google.android.gms.games.multiplayer.Multiplayer;
+import com.google.android.gms.games.multiplayer.turnbased.TurnBasedMatch;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress test of GameHelper's callback handling.
+ *
+ * Every helper runs on its own HandlerThread, as it would on the main thread, with a stand-in
+ * GoogleApiClient and the games client requested; the few games service calls of the sign-in
+ * flow are stood in for as well. A seeded random walk delivers lifecycle, connection and
+ * activity result callbacks in every order the framework and a real client could, connection
+ * hints included, as fast as the helper takes them, and checks the helper's invariants after
+ * each step. Games calls are submitted to the rate limiter along the way. Several helpers run
+ * in parallel while other threads read their sign-in state and add and remove listeners.
+ * Retries and resumes use millisecond delays, so they interleave with the walk.
+ *
+ * A failure reports the run's seed and its last steps; set REPLAY_SEED to replay that run alone.
+ */
+public class GameHelperStressTest extends AndroidTestCase {
+    static final String TAG = "GameHelperStressTest";
+    static final int HELPERS = 4;
+    static final int STEPS_PER_HELPER = 10000;
+    static final int BATCH = 250;
+    static final int READERS = 2;
+    static final int HISTORY = 32;
+    static final long BATCH_TIMEOUT_S = 60;
+    // Set to a seed reported by a failure to replay that run on its own.
+    static final long REPLAY_SEED = 0;
+    static final String PLAYER_ID = "stress-player";
+
+    static final int[] ERROR_CODES = {
+            ConnectionResult.NETWORK_ERROR, ConnectionResult.INTERNAL_ERROR,
+            ConnectionResult.SIGN_IN_REQUIRED, ConnectionResult.SERVICE_MISSING,
+            ConnectionResult.TIMEOUT, ConnectionResult.CANCELED
+    };
+    // RESULT_APP_MISCONFIGURED is left out: it prints app resources the test APK doesn't have.
+    static final int[] RESPONSE_CODES = {
+            Activity.RESULT_OK, Activity.RESULT_CANCELED,
+            GamesActivityResultCodes.RESULT_RECONNECT_REQUIRED,
+            GamesActivityResultCodes.RESULT_SIGN_IN_FAILED,
+            GamesActivityResultCodes.RESULT_LICENSE_FAILED,
+            GamesActivityResultCodes.RESULT_NETWORK_FAILURE, 12345
+    };
+
+    /** Stand-in API client, keeping the connection state the helper and the walk drive. */
+    static final class FakeClient implements InvocationHandler {
+        volatile boolean mConnected = false;
+        volatile boolean mConnecting = false;
+        // Set by the walk between onStop() and onStart().
+        volatile boolean mStopped = true;
+        volatile int mConnectsWhileStopped = 0;
+
+        GoogleApiClient newProxy() {
+            return (GoogleApiClient) Proxy.newProxyInstance(GoogleApiClient.class.getClassLoader(),
+                    new Class<?>[] { GoogleApiClient.class }, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("connect".equals(name)) {
+                if (mStopped) {
+                    mConnectsWhileStopped++;
+                }
+                if (!mConnected) {
+                    mConnecting = true;
+                }
+                return null;
+            } else if ("disconnect".equals(name)) {
+                mConnected = false;
+                mConnecting = false;
+                return null;
+            } else if ("reconnect".equals(name)) {
+                mConnected = false;
+                mConnecting = true;
+                return null;
+            } else if ("isConnected".equals(name)) {
+                return mConnected;
+            } else if ("isConnecting".equals(name)) {
+                return mConnecting;
+            }
+            return defaultResult(proxy, method, args, "FakeClient");
+        }
+    }
+
+    // What a stand-in returns for the methods it doesn't care about.
+    static Object defaultResult(Object proxy, Method method, Object[] args, String name) {
+        String methodName = method.getName();
+        if ("hashCode".equals(methodName)) {
+            return System.identityHashCode(proxy);
+        } else if ("equals".equals(methodName)) {
+            return proxy == args[0];
+        } else if ("toString".equals(methodName)) {
+            return name;
+        }
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    /** A connection hint holding a stand-in invitation. */
+    static Bundle newInvitationHint(final String invitationId) {
+        Invitation invitation = (Invitation) Proxy.newProxyInstance(
+                Invitation.class.getClassLoader(), new Class<?>[] { Invitation.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getInvitationId".equals(method.getName())) {
+                            return invitationId;
+                        }
+                        return defaultResult(proxy, method, args, "FakeInvitation");
+                    }
+                });
+        Bundle hint = new Bundle();
+        hint.putParcelable(Multiplayer.EXTRA_INVITATION, invitation);
+        return hint;
+    }
+
+    /** An Activity that is never attached; only its application context is used. */
+    static final class FakeActivity extends Activity {
+        private final Context mAppContext;
+
+        FakeActivity(Context appContext) {
+            mAppContext = appContext;
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return mAppContext;
+        }
+    }
+
+    /** One helper with its thread, client and random walk. */
+    final class Run implements GameHelper.GameHelperListener {
+        final long mSeed;
+        final Random mRandom;
+        final HandlerThread mThread;
+        final FakeClient mClient = new FakeClient();
+        final String[] mHistory = new String[HISTORY];
+        Handler mHandler;
+        FakeActivity mActivity;
+        volatile GameHelper mHelper;
+        int mSteps = 0;
+        long mLastVersion = -1;
+        // How often the helper connected the match store, and how often the walk connected.
+        int mStoreConnects = 0;
+        int mConnects = 0;
+        volatile String mFailure = null;
+
+        Run(long seed) {
+            mSeed = seed;
+            mRandom = new Random(seed);
+            mThread = new HandlerThread("GameHelperStress-" + seed);
+        }
+
+        void start() throws Exception {
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+            runAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    mActivity = new FakeActivity(getContext());
+                    GameHelper helper = new GameHelper(mActivity, GameHelper.CLIENT_GAMES) {
+                        @Override
+                        String loadCurrentPlayerId() {
+                            return PLAYER_ID;
+                        }
+
+                        @Override
+                        void signOutOfGames() {
+                        }
+                    };
+                    helper.setShowErrorDialogs(false);
+                    helper.mRetryScheduler = new ConnectionRetryScheduler(helper.mHandler,
+                            new Backoff(1, 8, 0.5));
+                    helper.mRetryScheduler.setRetryBudget(ConnectionResult.NETWORK_ERROR, 3);
+                    helper.mRetryScheduler.setRetryBudget(ConnectionResult.INTERNAL_ERROR, 2);
+                    helper.setReconnectPolicy(new ReconnectPolicy(new Backoff(1, 8, 0.5), 50, 3,
+                            1000, 200));
+                    helper.mGoogleApiClient = mClient.newProxy();
+                    // The walk decides when connects fail; the device's network must not.
+                    helper.getConnectionScheduler().setEnabled(false);
+                    helper.mSetupDone = true;
+                    // Counts connections instead of registering with the stand-in client.
+                    helper.mTurnBasedMatchStore = new TurnBasedMatchStore(helper) {
+                        @Override
+                        void onConnected(TurnBasedMatch hintMatch) {
+                            mStoreConnects++;
+                        }
+                    };
+                    helper.addListener(Run.this, null);
+                    mHelper = helper;
+                }
+            });
+        }
+
+        void runAndWait(final Runnable task) throws InterruptedException {
+            final CountDownLatch done = new CountDownLatch(1);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+            assertTrue("Helper thread stuck", done.await(BATCH_TIMEOUT_S, TimeUnit.SECONDS));
+        }
+
+        /** Posts the walk's steps in batches; returns when all ran or the run failed. */
+        void walk() throws InterruptedException {
+            for (int posted = 0; posted < STEPS_PER_HELPER && mFailure == null; posted += BATCH) {
+                final CountDownLatch batch = new CountDownLatch(BATCH);
+                for (int i = 0; i < BATCH; i++) {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            step();
+                            batch.countDown();
+                        }
+                    });
+                }
+                if (!batch.await(BATCH_TIMEOUT_S, TimeUnit.SECONDS)) {
+                    fail("batch timed out");
+                }
+            }
+        }
+
+        void stop() throws InterruptedException {
+            runAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mClient.mStopped) {
+                        mHelper.onStop();
+                        mClient.mStopped = true;
+                    }
+                    mHelper.onDestroy();
+                }
+            });
+            mThread.quit();
+        }
+
+        void step() {
+            if (mFailure != null) {
+                return;
+            }
+            try {
+                String event = deliverRandomEvent();
+                mHistory[mSteps % HISTORY] = event;
+                mSteps++;
+                checkInvariants(event);
+            } catch (Throwable t) {
+                fail("threw " + Log.getStackTraceString(t));
+            }
+        }
+
+        // Picks an event that the framework or a real client could deliver in the current state.
+        String deliverRandomEvent() {
+            int roll = mRandom.nextInt(100);
+            if (mClient.mStopped) {
+                if (roll < 80) {
+                    mClient.mStopped = false;
+                    mHelper.onStart(mActivity);
+                    return "onStart";
+                }
+                int response = RESPONSE_CODES[mRandom.nextInt(RESPONSE_CODES.length)];
+                mHelper.onActivityResult(GameHelper.RC_RESOLVE, response, null);
+                return "onActivityResult(stopped, " + response + ")";
+            }
+            if (mClient.mConnecting && roll < 40) {
+                mClient.mConnecting = false;
+                if (mRandom.nextBoolean()) {
+                    mClient.mConnected = true;
+                    mConnects++;
+                    if (mRandom.nextBoolean()) {
+                        mHelper.onConnected(null);
+                        checkConnected(null);
+                        return "onConnected";
+                    }
+                    String invitationId = "invitation-" + mSteps;
+                    mHelper.onConnected(newInvitationHint(invitationId));
+                    checkConnected(invitationId);
+                    return "onConnected(" + invitationId + ")";
+                }
+                int code = ERROR_CODES[mRandom.nextInt(ERROR_CODES.length)];
+                mHelper.onConnectionFailed(new ConnectionResult(code, null));
+                return "onConnectionFailed(" + code + ")";
+            }
+            if (mClient.mConnected && roll < 50) {
+                int cause = 1 + mRandom.nextInt(2);
+                mClient.mConnected = false;
+                mHelper.onConnectionSuspended(cause);
+                return "onConnectionSuspended(" + cause + ")";
+            }
+            if (roll < 60) {
+                int request = mRandom.nextInt(4) == 0 ? 1234 : GameHelper.RC_RESOLVE;
+                int response = RESPONSE_CODES[mRandom.nextInt(RESPONSE_CODES.length)];
+                mHelper.onActivityResult(request, response, null);
+                return "onActivityResult(" + request + ", " + response + ")";
+            } else if (roll < 68) {
+                mHelper.beginUserInitiatedSignIn();
+                return "beginUserInitiatedSignIn";
+            } else if (roll < 76) {
+                mHelper.connectAsync();
+                return "connectAsync";
+            } else if (roll < 82) {
+                mHelper.signOut();
+                return "signOut";
+            } else if (roll < 86) {
+                mHelper.getRateLimiter().submit(GamesApiRateLimiter.CATEGORY_OTHER,
+                        GamesApiRateLimiter.PRIORITY_DEFAULT, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mClient.mConnected) {
+                            fail("rate-limited call ran while disconnected");
+                        }
+                    }
+                });
+                return "submit";
+            } else if (roll < 92) {
+                // Lets delayed retries and resumes run before the next step.
+                return "idle";
+            }
+            mHelper.onStop();
+            mClient.mStopped = true;
+            return "onStop";
+        }
+
+        // Checks what onConnected() must have done, right after it.
+        void checkConnected(String invitationId) {
+            if (mStoreConnects != mConnects) {
+                fail("match store connected " + mStoreConnects + " times for " + mConnects
+                        + " connections");
+            }
+            if (!PLAYER_ID.equals(mHelper.mPlayerId)) {
+                fail("player ID " + mHelper.mPlayerId + " after onConnected");
+            }
+            if (invitationId != null && !invitationId.equals(mHelper.getInvitationId())) {
+                fail("invitation " + mHelper.getInvitationId() + " instead of " + invitationId);
+            }
+        }
+
+        void checkInvariants(String event) {
+            SignInState state = mHelper.getSignInState();
+            if (state.isSignedIn() != mClient.mConnected) {
+                fail("published state " + state + " but client connected=" + mClient.mConnected);
+            }
+            if (state.getVersion() < mLastVersion) {
+                fail("state version went back from " + mLastVersion + " to " + state.getVersion());
+            }
+            mLastVersion = state.getVersion();
+            if (mClient.mConnectsWhileStopped > 0) {
+                fail("client connected while the activity was stopped");
+            }
+            if (mClient.mStopped && (mHelper.isConnecting() || state.isConnecting())) {
+                fail("still connecting while stopped, after " + event);
+            }
+        }
+
+        @Override
+        public void onSignInSucceeded() {
+            if (!mClient.mConnected) {
+                fail("onSignInSucceeded while disconnected");
+            }
+        }
+
+        @Override
+        public void onSignInFailed() {
+            if (mClient.mConnected) {
+                fail("onSignInFailed while connected");
+            }
+        }
+
+        void fail(String message) {
+            if (mFailure != null) {
+                return;
+            }
+            StringBuilder sb = new StringBuilder("seed ").append(mSeed).append(", step ")
+                    .append(mSteps).append(": ").append(message).append("\nLast steps:");
+            for (int i = Math.max(0, mSteps - HISTORY); i < mSteps; i++) {
+                sb.append("\n  ").append(mHistory[i % HISTORY]);
+            }
+            mFailure = sb.toString();
+            Log.e(TAG, mFailure);
+        }
+    }
+
+    public void testRandomCallbackOrders() throws Exception {
+        long baseSeed = REPLAY_SEED != 0 ? REPLAY_SEED : System.nanoTime();
+        int helpers = REPLAY_SEED != 0 ? 1 : HELPERS;
+        Log.i(TAG, "Base seed " + baseSeed);
+
+        final ArrayList<Run> runs = new ArrayList<Run>();
+        for (int i = 0; i < helpers; i++) {
+            Run run = new Run(baseSeed + i);
+            run.start();
+            runs.add(run);
+        }
+
+        // Readers hammer the thread-safe parts of the helper while the walks run.
+        final AtomicBoolean walking = new AtomicBoolean(true);
+        final AtomicLong reads = new AtomicLong();
+        final String[] readerFailure = new String[1];
+        ArrayList<Thread> readers = new ArrayList<Thread>();
+        for (int r = 0; r < READERS; r++) {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long[] lastVersions = new long[runs.size()];
+                    GameHelper.GameHelperListener listener = new GameHelper.GameHelperListener() {
+                        @Override
+                        public void onSignInFailed() {
+                        }
+
+                        @Override
+                        public void onSignInSucceeded() {
+                        }
+                    };
+                    Executor direct = new Executor() {
+                        @Override
+                        public void execute(Runnable command) {
+                            command.run();
+                        }
+                    };
+                    while (walking.get()) {
+                        for (int i = 0; i < runs.size(); i++) {
+                            GameHelper helper = runs.get(i).mHelper;
+                            long version = helper.getSignInState().getVersion();
+                            if (version < lastVersions[i]) {
+                                synchronized (readerFailure) {
+                                    readerFailure[0] = "reader saw version " + version
+                                            + " after " + lastVersions[i];
+                                }
+                            }
+                            lastVersions[i] = version;
+                            helper.addListener(listener, direct);
+                            helper.removeListener(listener);
+                            reads.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        ArrayList<Thread> walkers = new ArrayList<Thread>();
+        final ArrayList<Throwable> walkerErrors = new ArrayList<Throwable>();
+        for (final Run run : runs) {
+            Thread walker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        run.walk();
+                    } catch (Throwable t) {
+                        synchronized (walkerErrors) {
+                            walkerErrors.add(t);
+                        }
+                    }
+                }
+            });
+            walker.start();
+            walkers.add(walker);
+        }
+        for (Thread walker : walkers) {
+            walker.join();
+        }
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+        walking.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        for (Run run : runs) {
+            run.stop();
+        }
+
+        int steps = 0;
+        for (Run run : runs) {
+            steps += run.mSteps;
+        }
+        Log.i(TAG, String.format("%d helpers: %d steps in %d ms, %.0f steps/s; %d reads, %.0f/s",
+                runs.size(), steps, elapsed, steps * 1000.0 / elapsed, reads.get(),
+                reads.get() * 1000.0 / elapsed));
+
+        assertTrue("walkers failed: " + walkerErrors, walkerErrors.isEmpty());
+        assertNull(readerFailure[0], readerFailure[0]);
+        for (Run run : runs) {
+            assertNull(run.mFailure, run.mFailure);
+        }
+    }
+}
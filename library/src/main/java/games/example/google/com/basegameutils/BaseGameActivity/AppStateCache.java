@@ -0,0 +1,455 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.appstate.AppStateManager;
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local read-through cache of the AppState slots.
+ *
+ * Every slot is kept in memory and in a memory-mapped file in the app's private storage, so
+ * {@link #read} never touches the network or the disk and works before the client has
+ * connected. The slot files are loaded in the background when the cache is created; until then
+ * reads return null, and the slots read meanwhile are reported changed once loaded. Writes go
+ * to the cache right away and only the written slots are pushed to the cloud in the background;
+ * writes made before a push starts share it. Conflicts are resolved with a pluggable
+ * {@link MergePolicy}. Remote changes to the other slots are only pulled when the helper
+ * connects. A slot stays dirty until the server has accepted its latest write.
+ *
+ * Requires the helper to be set up with {@link GameHelper#CLIENT_APPSTATE}.
+ */
+public class AppStateCache {
+    // Slot count to assume before we have asked the service.
+    static final int DEFAULT_NUM_SLOTS = 4;
+    // Slot size limit to assume before we have asked the service.
+    static final int DEFAULT_MAX_STATE_SIZE = 128 * 1024;
+    // How many times we try to resolve a slot before leaving it for the next round.
+    static final int MAX_RESOLVE_ATTEMPTS = 3;
+    // Directory, under the app's files dir, holding the slot files.
+    static final String CACHE_DIR = "gamehelper_appstate";
+
+    /**
+     * Decides the content of a slot in conflict. Called on the background thread.
+     */
+    public interface MergePolicy {
+        /**
+         * @param key
+         *          the slot in conflict
+         * @param local
+         *          our version of the data, may be null
+         * @param server
+         *          the server's version of the data, may be null
+         * @return the data to resolve the conflict with
+         */
+        byte[] merge(int key, byte[] local, byte[] server);
+    }
+
+    /** Keeps our local data. */
+    public static final MergePolicy LOCAL_WINS = new MergePolicy() {
+        @Override
+        public byte[] merge(int key, byte[] local, byte[] server) {
+            return local != null ? local : server;
+        }
+    };
+
+    /** Keeps the data from the server. */
+    public static final MergePolicy SERVER_WINS = new MergePolicy() {
+        @Override
+        public byte[] merge(int key, byte[] local, byte[] server) {
+            return server != null ? server : local;
+        }
+    };
+
+    /** Told when a slot got new content from the disk or the cloud. Called on the main thread. */
+    public interface Listener {
+        void onSlotChanged(int key);
+    }
+
+    private final GameHelper mHelper;
+    private final File mDir;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Cached slot content. Absent slots have not been read from disk yet.
+    private final ConcurrentHashMap<Integer, byte[]> mSlots =
+            new ConcurrentHashMap<Integer, byte[]>();
+    // Slots written locally and not yet accepted by the server, with the sequence number of
+    // their latest write.
+    private final ConcurrentHashMap<Integer, Long> mDirty = new ConcurrentHashMap<Integer, Long>();
+    private final AtomicLong mWriteSequence = new AtomicLong();
+    // Whether a push of the dirty slots is queued and not started yet.
+    private final AtomicBoolean mPushQueued = new AtomicBoolean();
+    // Whether the slot files have been loaded, and the slots read before they were. Guarded by
+    // mMissed.
+    private boolean mLoaded = false;
+    private final HashSet<Integer> mMissed = new HashSet<Integer>();
+    // Bumped by clear(), so that a reconcile started before doesn't write back the previous
+    // player's slots.
+    private volatile int mEpoch = 0;
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<Listener>();
+    private volatile MergePolicy mMergePolicy = LOCAL_WINS;
+    // Policies of single slots, overriding mMergePolicy.
+    private final ConcurrentHashMap<Integer, MergePolicy> mSlotPolicies =
+            new ConcurrentHashMap<Integer, MergePolicy>();
+    private volatile int mNumSlots = DEFAULT_NUM_SLOTS;
+    private volatile int mMaxStateSize = DEFAULT_MAX_STATE_SIZE;
+    // Placeholder for slots known to be empty, since the map can't hold null.
+    private static final byte[] EMPTY = new byte[0];
+
+    public AppStateCache(GameHelper helper, Context context) {
+        mHelper = helper;
+        mDir = new File(context.getFilesDir(), CACHE_DIR);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadFiles();
+            }
+        });
+    }
+
+    /** Sets the policy used to resolve conflicts. The default is {@link #LOCAL_WINS}. */
+    public void setMergePolicy(MergePolicy policy) {
+        mMergePolicy = policy;
+    }
+
+    /**
+     * Sets the policy used to resolve conflicts on one slot, overriding the one set with
+     * {@link #setMergePolicy(MergePolicy)}; null to remove it.
+     */
+    public void setMergePolicy(int key, MergePolicy policy) {
+        if (policy == null) {
+            mSlotPolicies.remove(key);
+        } else {
+            mSlotPolicies.put(key, policy);
+        }
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Returns the cached content of a slot, or null if it's empty or the slot files aren't
+     * loaded yet; see {@link #isLoaded()}. Never waits on the disk or the network. The returned
+     * array is shared with the cache and must not be modified.
+     */
+    public byte[] read(int key) {
+        byte[] data = mSlots.get(key);
+        if (data == null) {
+            synchronized (mMissed) {
+                if (!mLoaded) {
+                    mMissed.add(key);
+                }
+            }
+        }
+        return data == EMPTY ? null : data;
+    }
+
+    /** Returns whether the slot files have been loaded, so that read() is authoritative. */
+    public boolean isLoaded() {
+        synchronized (mMissed) {
+            return mLoaded;
+        }
+    }
+
+    /**
+     * Stores new content for a slot. The cache and the slot file are updated right away and the
+     * content is pushed to the cloud in the background.
+     */
+    public void write(final int key, byte[] data) {
+        final byte[] copy = data == null ? EMPTY : Arrays.copyOf(data, data.length);
+        mSlots.put(key, copy);
+        mDirty.put(key, mWriteSequence.incrementAndGet());
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeFile(key, copy);
+            }
+        });
+        if (mPushQueued.compareAndSet(false, true)) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mPushQueued.set(false);
+                    pushDirty();
+                }
+            });
+        }
+    }
+
+    /** Returns whether a slot has local changes the server hasn't accepted yet. */
+    public boolean isDirty(int key) {
+        return mDirty.containsKey(key);
+    }
+
+    /** Returns how many slots the service allows, or a default before the first connection. */
+    public int getNumSlots() {
+        return mNumSlots;
+    }
+
+    /** Returns the largest slot the service allows, or a default before the first connection. */
+    public int getMaxStateSize() {
+        return mMaxStateSize;
+    }
+
+    /**
+     * Synchronizes all slots with the cloud in the background: pushes the dirty ones and pulls
+     * the others. Does nothing when the client isn't connected. The helper calls this once it
+     * connects.
+     */
+    public void reconcile() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                reconcileAll();
+            }
+        });
+    }
+
+    /** Drops the cache and deletes the slot files, e.g. when the player signs out. */
+    public void clear() {
+        mEpoch++;
+        mSlots.clear();
+        mDirty.clear();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = mDir.listFiles();
+                if (files != null) {
+                    for (File f : files) {
+                        if (!f.delete()) {
+                            Log.w(GameHelper.TAG, "AppStateCache: could not delete " + f);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    // Reads the slot files into memory. Runs first on the executor.
+    private void loadFiles() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (!f.getName().startsWith("slot_")) {
+                    continue;
+                }
+                int key;
+                try {
+                    key = Integer.parseInt(f.getName().substring("slot_".length()));
+                } catch (NumberFormatException ex) {
+                    continue;
+                }
+                byte[] data = readFile(key);
+                if (data != null) {
+                    // A write made meanwhile is newer than the file.
+                    mSlots.putIfAbsent(key, data);
+                }
+            }
+        }
+        HashSet<Integer> missed;
+        synchronized (mMissed) {
+            mLoaded = true;
+            missed = new HashSet<Integer>(mMissed);
+            mMissed.clear();
+        }
+        for (int key : missed) {
+            notifySlotChanged(key);
+        }
+    }
+
+    private void reconcileAll() {
+        GoogleApiClient client = mHelper.getApiClient();
+        if (!client.isConnected()) {
+            mHelper.debugLog("AppStateCache: not connected, postponing reconcile.");
+            return;
+        }
+        int epoch = mEpoch;
+        mNumSlots = AppStateManager.getMaxNumKeys(client);
+        mMaxStateSize = AppStateManager.getMaxStateSize(client);
+        for (int key = 0; key < mNumSlots && epoch == mEpoch; key++) {
+            reconcileSlot(client, key, epoch);
+        }
+    }
+
+    // Pushes the dirty slots only. Runs on the executor after writes.
+    private void pushDirty() {
+        GoogleApiClient client = mHelper.getApiClient();
+        if (!client.isConnected()) {
+            mHelper.debugLog("AppStateCache: not connected, pushing on the next connection.");
+            return;
+        }
+        int epoch = mEpoch;
+        for (Integer key : new ArrayList<Integer>(mDirty.keySet())) {
+            if (epoch != mEpoch) {
+                return;
+            }
+            reconcileSlot(client, key, epoch);
+        }
+    }
+
+    private void reconcileSlot(GoogleApiClient client, int key, int epoch) {
+        AppStateManager.StateResult result;
+        // The write we push; the slot is only clean once the server accepted it and no newer
+        // write came in.
+        Long sequence = mDirty.get(key);
+        if (sequence != null) {
+            byte[] local = read(key);
+            result = AppStateManager.updateImmediate(client, key, local == null ? EMPTY : local)
+                    .await();
+        } else {
+            result = AppStateManager.load(client, key).await();
+        }
+
+        for (int attempt = 0; result.getConflictResult() != null; attempt++) {
+            if (attempt >= MAX_RESOLVE_ATTEMPTS || isNewerWrite(key, sequence)
+                    || epoch != mEpoch) {
+                // Give up for now, or a newer local write will be pushed on its own round.
+                return;
+            }
+            AppStateManager.StateConflictResult conflict = result.getConflictResult();
+            MergePolicy policy = mSlotPolicies.get(key);
+            byte[] merged = (policy != null ? policy : mMergePolicy).merge(key,
+                    conflict.getLocalData(), conflict.getServerData());
+            mHelper.debugLog("AppStateCache: resolving conflict on slot " + key);
+            result = AppStateManager.resolve(client, key, conflict.getResolvedVersion(),
+                    merged == null ? EMPTY : merged).await();
+        }
+
+        AppStateManager.StateLoadedResult loaded = result.getLoadedResult();
+        if (loaded == null || !loaded.getStatus().isSuccess()) {
+            mHelper.debugLog("AppStateCache: slot " + key + " not synchronized, status "
+                    + (loaded == null ? "none" : loaded.getStatus().getStatusCode()));
+            return;
+        }
+        if (epoch != mEpoch) {
+            // Cleared meanwhile; this is the previous player's data.
+            return;
+        }
+        if (sequence != null ? !mDirty.remove(key, sequence) : mDirty.containsKey(key)) {
+            // Written again while we were talking to the server; that write wins locally.
+            return;
+        }
+
+        byte[] remote = loaded.getLocalData();
+        byte[] cached = read(key);
+        if (!Arrays.equals(remote, cached)) {
+            mSlots.put(key, remote == null ? EMPTY : remote);
+            writeFile(key, remote == null ? EMPTY : remote);
+            notifySlotChanged(key);
+        }
+    }
+
+    // Whether the slot was written since the write with the given sequence number, or at all if
+    // there was none.
+    private boolean isNewerWrite(int key, Long sequence) {
+        Long current = mDirty.get(key);
+        return current != null && !current.equals(sequence);
+    }
+
+    private void notifySlotChanged(final int key) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener l : mListeners) {
+                    l.onSlotChanged(key);
+                }
+            }
+        });
+    }
+
+    File slotFile(int key) {
+        return new File(mDir, "slot_" + key);
+    }
+
+    // Slot files hold a 4 byte length followed by the data.
+    byte[] readFile(int key) {
+        File f = slotFile(key);
+        if (!f.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(f, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int length = buf.getInt();
+            byte[] data = new byte[length];
+            buf.get(data);
+            return data;
+        } catch (Exception ex) {
+            Log.w(GameHelper.TAG, "AppStateCache: could not read slot " + key + ": " + ex);
+            return null;
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+    void writeFile(int key, byte[] data) {
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            Log.w(GameHelper.TAG, "AppStateCache: could not create " + mDir);
+            return;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(slotFile(key), "rw");
+            raf.setLength(4 + data.length);
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    4 + data.length);
+            buf.putInt(data.length);
+            buf.put(data);
+            buf.force();
+        } catch (IOException ex) {
+            Log.w(GameHelper.TAG, "AppStateCache: could not write slot " + key + ": " + ex);
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile raf) {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException ex) {
+                // Nothing more we can do.
+            }
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Key-value storage packed into AppState slots.
+ *
+ * Many logical keys are spread over a fixed range of slots (pages) by hashing the key. Each page
+ * is stored deflated and checksummed, and only pages holding changed keys are rewritten on
+ * {@link #flush()}. Pages are read through, and written to, an {@link AppStateCache}, which
+ * takes care of getting them to and from the cloud.
+ *
+ * Pages are merged key by key, so that keys another device changed in the same page aren't
+ * lost: the store resolves the cache's conflicts on its slots by taking our value for the keys
+ * we changed since the server last accepted the page, and the cloud's value for all others. A
+ * page that changes in the cache while we have unflushed changes is reloaded and gets them
+ * applied again.
+ *
+ * Until the cache has loaded its slot files, a page can't be read. The same goes for a page
+ * that is corrupt, i.e. has an unknown format or fails its checksum. Such a page is never
+ * flushed, since that would write over the keys we couldn't see; changes made to it are kept
+ * and applied to the real page once the cache reports the slot again, e.g. when good content
+ * comes from the cloud.
+ *
+ * The number of pages decides which page a key lives in, so it must never change for a given
+ * game. Not thread safe; use from the main thread, where cache changes are reported. Only
+ * merge() runs on the cache's background thread.
+ */
+public class AppStatePageStore implements AppStateCache.Listener, AppStateCache.MergePolicy {
+    // Identifies our page format, followed by the format version.
+    static final int PAGE_MAGIC = 0x4750;
+    static final int PAGE_VERSION = 1;
+    // magic (2) + version (1) + CRC32 of the uncompressed entries (4) + their length (4).
+    static final int PAGE_HEADER_SIZE = 11;
+    // How much larger than the slot size limit a page's entries may be before deflating; also
+    // bounds what decode() allocates for a page.
+    static final int MAX_INFLATE_RATIO = 8;
+
+    // A decoded page.
+    static final class Page {
+        // Sorted, so that equal content always encodes to equal bytes.
+        final TreeMap<String, byte[]> mEntries = new TreeMap<String, byte[]>();
+        boolean mDirty = false;
+        // Set when the slot couldn't be read; the page then only collects changes, to apply
+        // once the slot can be read.
+        boolean mIncomplete = false;
+        // Changes since the last flush, null values standing for removals.
+        final TreeMap<String, byte[]> mChanges = new TreeMap<String, byte[]>();
+
+        void put(String key, byte[] value) {
+            apply(key, value);
+            mChanges.put(key, value);
+            mDirty = true;
+        }
+
+        void apply(String key, byte[] value) {
+            if (value == null) {
+                mEntries.remove(key);
+            } else {
+                mEntries.put(key, value);
+            }
+        }
+    }
+
+    private final AppStateCache mCache;
+    private final int mFirstSlot;
+    private final int mNumPages;
+    // Decoded pages, by page index.
+    private final HashMap<Integer, Page> mPages = new HashMap<Integer, Page>();
+    // Flushed changes the server hasn't accepted yet, by slot. Replaced, never modified, since
+    // the cache merges on its background thread.
+    private final ConcurrentHashMap<Integer, Map<String, byte[]>> mUnsynced =
+            new ConcurrentHashMap<Integer, Map<String, byte[]>>();
+    // Set by setMaxPageSize(), 0 to use the cache's slot size limit.
+    private volatile int mMaxPageSize = 0;
+
+    /**
+     * @param cache
+     *          the AppState cache the pages are stored in
+     * @param firstSlot
+     *          the first AppState slot to use
+     * @param numPages
+     *          how many consecutive slots to use, starting at firstSlot
+     */
+    public AppStatePageStore(AppStateCache cache, int firstSlot, int numPages) {
+        if (numPages <= 0) {
+            throw new IllegalArgumentException("AppStatePageStore needs at least one page.");
+        }
+        mCache = cache;
+        mFirstSlot = firstSlot;
+        mNumPages = numPages;
+        mCache.addListener(this);
+        for (int i = 0; i < numPages; i++) {
+            mCache.setMergePolicy(firstSlot + i, this);
+        }
+    }
+
+    /**
+     * Sets the largest encoded page we are allowed to write. The default is AppState's slot
+     * size limit, as reported by the cache.
+     */
+    public void setMaxPageSize(int bytes) {
+        mMaxPageSize = bytes;
+    }
+
+    int maxPageSize() {
+        return mMaxPageSize > 0 ? mMaxPageSize : mCache.getMaxStateSize();
+    }
+
+    /** Returns the value of a key, or null if not present. */
+    public byte[] get(String key) {
+        return page(pageOf(key)).mEntries.get(key);
+    }
+
+    /** Sets the value of a key. It is saved on the next {@link #flush()}. */
+    public void put(String key, byte[] value) {
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        page(pageOf(key)).put(key, value);
+    }
+
+    /** Removes a key. The change is saved on the next {@link #flush()}. */
+    public void remove(String key) {
+        Page page = page(pageOf(key));
+        if (page.mEntries.containsKey(key) || page.mIncomplete) {
+            page.put(key, null);
+        }
+    }
+
+    /**
+     * Encodes and writes the pages that changed since the last flush.
+     *
+     * @return the number of bytes handed to the cache
+     */
+    public int flush() {
+        int written = 0;
+        int maxPageSize = maxPageSize();
+        for (Map.Entry<Integer, Page> e : mPages.entrySet()) {
+            Page page = e.getValue();
+            if (!page.mDirty || page.mIncomplete) {
+                continue;
+            }
+            byte[] encoded = encode(page, maxPageSize);
+            if (encoded == null || encoded.length > maxPageSize) {
+                Log.e(GameHelper.TAG, "AppStatePageStore: page " + e.getKey() + " is over the "
+                        + "limit of " + maxPageSize + " bytes. Not saving it; use more pages.");
+                continue;
+            }
+            int slot = mFirstSlot + e.getKey();
+            // Changes flushed before stay unsynced as long as the slot is dirty.
+            TreeMap<String, byte[]> unsynced = new TreeMap<String, byte[]>();
+            Map<String, byte[]> previous = mUnsynced.get(slot);
+            if (previous != null && mCache.isDirty(slot)) {
+                unsynced.putAll(previous);
+            }
+            unsynced.putAll(page.mChanges);
+            mUnsynced.put(slot, unsynced);
+            mCache.write(slot, encoded);
+            page.mDirty = false;
+            page.mChanges.clear();
+            written += encoded.length;
+        }
+        return written;
+    }
+
+    /**
+     * A page was loaded or changed on the cloud: drop our decoded copy, or, if we have changes
+     * not flushed yet, read it again with our changes applied.
+     */
+    @Override
+    public void onSlotChanged(int key) {
+        int index = key - mFirstSlot;
+        if (index < 0 || index >= mNumPages) {
+            return;
+        }
+        Page page = mPages.get(index);
+        if (page == null) {
+            return;
+        }
+        if (page.mIncomplete || page.mDirty) {
+            Page reloaded = load(index);
+            for (Map.Entry<String, byte[]> e : page.mChanges.entrySet()) {
+                reloaded.put(e.getKey(), e.getValue());
+            }
+            mPages.put(index, reloaded);
+        } else {
+            mPages.remove(index);
+        }
+    }
+
+    /**
+     * Resolves a conflict on one of our pages: the cloud's page with the changes the server
+     * hasn't accepted yet applied. Called by the cache on its background thread.
+     */
+    @Override
+    public byte[] merge(int key, byte[] local, byte[] server) {
+        int maxPageSize = maxPageSize();
+        Page merged = decode(key - mFirstSlot, server, maxPageSize);
+        if (merged.mIncomplete) {
+            // We can't read the cloud's page, so there is nothing in it we could keep.
+            return local;
+        }
+        Map<String, byte[]> changes = mCache.isDirty(key) ? mUnsynced.get(key) : null;
+        if (changes != null) {
+            for (Map.Entry<String, byte[]> e : changes.entrySet()) {
+                merged.apply(e.getKey(), e.getValue());
+            }
+        }
+        byte[] encoded = encode(merged, maxPageSize);
+        if (encoded == null || encoded.length > maxPageSize) {
+            Log.w(GameHelper.TAG, "AppStatePageStore: merged page " + (key - mFirstSlot)
+                    + " is over the limit, keeping ours.");
+            return local;
+        }
+        return encoded;
+    }
+
+    int pageOf(String key) {
+        return (key.hashCode() & 0x7fffffff) % mNumPages;
+    }
+
+    private Page page(int index) {
+        Page page = mPages.get(index);
+        if (page == null) {
+            page = load(index);
+            mPages.put(index, page);
+        }
+        return page;
+    }
+
+    private Page load(int index) {
+        int slot = mFirstSlot + index;
+        if (!mCache.isLoaded()) {
+            // Has the cache report the slot once loaded, unless it got loaded just now.
+            mCache.read(slot);
+            if (!mCache.isLoaded()) {
+                Page page = new Page();
+                page.mIncomplete = true;
+                return page;
+            }
+        }
+        return decode(index, mCache.read(slot), maxPageSize());
+    }
+
+    // Returns null if the entries are too large for decode() to accept.
+    static byte[] encode(Page page, int maxPageSize) {
+        try {
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(raw);
+            out.writeInt(page.mEntries.size());
+            for (Map.Entry<String, byte[]> e : page.mEntries.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().length);
+                out.write(e.getValue());
+            }
+            out.flush();
+            byte[] entries = raw.toByteArray();
+            if (entries.length > maxPageSize * MAX_INFLATE_RATIO) {
+                return null;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(entries);
+
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            deflater.setInput(entries);
+            deflater.finish();
+            ByteArrayOutputStream result = new ByteArrayOutputStream(PAGE_HEADER_SIZE
+                    + entries.length / 2);
+            DataOutputStream header = new DataOutputStream(result);
+            header.writeShort(PAGE_MAGIC);
+            header.writeByte(PAGE_VERSION);
+            header.writeInt((int) crc.getValue());
+            header.writeInt(entries.length);
+            byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                result.write(buf, 0, n);
+            }
+            deflater.end();
+            return result.toByteArray();
+        } catch (IOException ex) {
+            // Can't happen with in-memory streams.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // Decodes a page. A corrupt page comes back incomplete, so that it isn't flushed.
+    static Page decode(int index, byte[] data, int maxPageSize) {
+        Page page = new Page();
+        if (data == null || data.length == 0) {
+            return page;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            DataInputStream header = new DataInputStream(new ByteArrayInputStream(data));
+            int magic = header.readUnsignedShort();
+            int version = header.readUnsignedByte();
+            if (magic != PAGE_MAGIC || version != PAGE_VERSION) {
+                Log.w(GameHelper.TAG, "AppStatePageStore: page " + index + " has an unknown "
+                        + "format, not using it until it is reloaded.");
+                return corrupt(page);
+            }
+            int crcValue = header.readInt();
+            int length = header.readInt();
+            if (length < 0 || length > maxPageSize * MAX_INFLATE_RATIO) {
+                Log.w(GameHelper.TAG, "AppStatePageStore: page " + index + " claims " + length
+                        + " bytes, not using it until it is reloaded.");
+                return corrupt(page);
+            }
+
+            byte[] entries = new byte[length];
+            inflater.setInput(data, PAGE_HEADER_SIZE, data.length - PAGE_HEADER_SIZE);
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int read = inflater.inflate(entries, n, length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(entries, 0, n);
+            if (n != length || (int) crc.getValue() != crcValue) {
+                Log.w(GameHelper.TAG, "AppStatePageStore: page " + index + " failed its "
+                        + "checksum, not using it until it is reloaded.");
+                return corrupt(page);
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(entries));
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+                page.mEntries.put(key, value);
+            }
+        } catch (IOException ex) {
+            Log.w(GameHelper.TAG, "AppStatePageStore: page " + index + " is corrupt: " + ex);
+            return corrupt(page);
+        } catch (DataFormatException ex) {
+            Log.w(GameHelper.TAG, "AppStatePageStore: page " + index + " is corrupt: " + ex);
+            return corrupt(page);
+        } finally {
+            inflater.end();
+        }
+        return page;
+    }
+
+    private static Page corrupt(Page page) {
+        page.mEntries.clear();
+        page.mIncomplete = true;
+        return page;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import java.util.Random;
+
+/**
+ * Jittered exponential backoff.
+ *
+ * The delay before attempt n (counting from 0) is base * 2^n, capped at max, of which a random
+ * share given by the jitter factor is taken off so that many clients don't retry in step.
+ */
+public class Backoff {
+    private final long mBaseDelayMs;
+    private final long mMaxDelayMs;
+    private final double mJitter;
+    private final Random mRandom = new Random();
+
+    /**
+     * @param baseDelayMs
+     *          delay before the first attempt
+     * @param maxDelayMs
+     *          upper bound on any delay
+     * @param jitter
+     *          share of each delay that is randomized, 0 for none, at most 1
+     */
+    public Backoff(long baseDelayMs, long maxDelayMs, double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Backoff jitter must be in [0, 1]: " + jitter);
+        }
+        mBaseDelayMs = baseDelayMs;
+        mMaxDelayMs = maxDelayMs;
+        mJitter = jitter;
+    }
+
+    /** Returns the delay before the given attempt, counting from 0. */
+    public long delayFor(int attempt) {
+        long delay = mMaxDelayMs;
+        // Stop doubling well before overflowing.
+        if (attempt < 30) {
+            delay = Math.min(mMaxDelayMs, mBaseDelayMs << attempt);
+        }
+        long jitter = (long) (delay * mJitter * mRandom.nextDouble());
+        return delay - jitter;
+    }
+}
@@ -0,0 +1,95 @@
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v4.app.FragmentActivity;
+
+/**
+ * Created by Henrik Samuelsson on 2014-08-24.
+ */
+public abstract class BaseGameActivity extends FragmentActivity implements
+        GameHelper.GameHelperListener {
+
+    // The game helper object. This class is mainly a wrapper around this object.
+    protected GameHelper mHelper;
+
+    // We expose these constants here because we do not want users of this class to have to know
+    // about GameHelper at all.
+    public static final int CLIENT_GAMES = GameHelper.CLIENT_GAMES;
+    public static final int CLIENT_PLUS = GameHelper.CLIENT_PLUS;
+    public static final int CLIENT_APPSTATE = GameHelper.CLIENT_APPSTATE;
+    public static final int CLIENT_SNAPSHOT = GameHelper.CLIENT_SNAPSHOT;
+    public static final int CLIENT_ALL = GameHelper.CLIENT_ALL;
+
+    // Requested clients. By default, that's just the games client.
+    protected int mRequestedClients = CLIENT_GAMES;
+
+    /** Constructs a BaseGameActivity with default client (GamesClient). */
+    protected BaseGameActivity() {
+        super();
+    }
+
+    /**
+     * Constructs a BaseGameActivity with the requested clients.
+     *
+     * @param requestedClients The requested clients (a combination of CLIENT_GAMES,
+     *         CLIENT_PLUS, CLIENT_APPSTATE and CLIENT_SNAPSHOT).
+     */
+    protected BaseGameActivity(int requestedClients) {
+        super();
+        mRequestedClients = requestedClients;
+    }
+
+    public GameHelper getGameHelper() {
+        if (mHelper == null) {
+            mHelper = new GameHelper(this, mRequestedClients);
+        }
+        return mHelper;
+    }
+
+    /**
+     * Sets up the helper. If a client was prewarmed with {@link GameHelperPrewarmer} for the
+     * same clients, the helper takes over that client instead of building a new one.
+     */
+    @Override
+    protected void onCreate(Bundle b) {
+        super.onCreate(b);
+        getGameHelper().setup(this);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mHelper.onStart(this);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mHelper.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHelper.onDestroy();
+    }
+
+    @Override
+    protected void onActivityResult(int request, int response, Intent data) {
+        super.onActivityResult(request, response, data);
+        mHelper.onActivityResult(request, response, data);
+    }
+
+    protected boolean isSignedIn() {
+        return mHelper.isSignedIn();
+    }
+
+    protected void beginUserInitiatedSignIn() {
+        mHelper.beginUserInitiatedSignIn();
+    }
+
+    protected void signOut() {
+        mHelper.signOut();
+    }
+}
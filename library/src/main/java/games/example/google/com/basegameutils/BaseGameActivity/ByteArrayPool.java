@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+
+/**
+ * A small pool of byte arrays, bucketed by exact length.
+ *
+ * The Games APIs take whole arrays (no offset/length), so packets must be sized exactly. In a
+ * game loop the same packet sizes come up frame after frame, which makes recycling by exact
+ * length effective. Not thread safe; use one pool per thread.
+ */
+public class ByteArrayPool {
+    // Default number of arrays kept per length.
+    static final int DEFAULT_MAX_PER_LENGTH = 4;
+
+    // Recycled arrays, keyed on array length.
+    private final SparseArray<ArrayList<byte[]>> mBuckets = new SparseArray<ArrayList<byte[]>>();
+    // Max number of arrays we keep for each length.
+    private final int mMaxPerLength;
+
+    public ByteArrayPool() {
+        this(DEFAULT_MAX_PER_LENGTH);
+    }
+
+    /**
+     * @param maxPerLength
+     *          how many arrays of each length that at most are kept for reuse
+     */
+    public ByteArrayPool(int maxPerLength) {
+        mMaxPerLength = maxPerLength;
+    }
+
+    /**
+     * Returns an array of exactly the given length, recycled if one is available. The content of
+     * the returned array is undefined.
+     */
+    public byte[] acquire(int length) {
+        ArrayList<byte[]> bucket = mBuckets.get(length);
+        if (bucket != null && !bucket.isEmpty()) {
+            return bucket.remove(bucket.size() - 1);
+        }
+        return new byte[length];
+    }
+
+    /** Hands an array back to the pool. The caller must not use it afterwards. */
+    public void release(byte[] array) {
+        if (array == null) {
+            return;
+        }
+        ArrayList<byte[]> bucket = mBuckets.get(array.length);
+        if (bucket == null) {
+            bucket = new ArrayList<byte[]>(mMaxPerLength);
+            mBuckets.put(array.length, bucket);
+        }
+        if (bucket.size() < mMaxPerLength) {
+            bucket.add(array);
+        }
+    }
+
+    /** Drops all pooled arrays. */
+    public void clear() {
+        mBuckets.clear();
+    }
+}
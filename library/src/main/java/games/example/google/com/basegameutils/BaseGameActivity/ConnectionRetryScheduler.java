@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.os.Handler;
+import android.util.SparseIntArray;
+
+import com.google.android.gms.common.ConnectionResult;
+
+/**
+ * Retries connection attempts that failed for transient reasons.
+ *
+ * Every ConnectionResult error code has its own retry budget; codes without a budget are never
+ * retried. By default only the transient service errors (NETWORK_ERROR, INTERNAL_ERROR and
+ * TIMEOUT) have one. A failed resolution is never retried, as retrying would only show the
+ * player the same UI again. Retries are spaced with jittered exponential backoff and run on the
+ * helper's handler. The budgets are spent per sign-in attempt: the helper calls
+ * {@link #reset()} when it signs in or the user starts over, and {@link #cancel()} from
+ * onStop().
+ *
+ * Used on the helper's thread only.
+ */
+public class ConnectionRetryScheduler {
+    static final int DEFAULT_NETWORK_ERROR_RETRIES = 3;
+    static final int DEFAULT_INTERNAL_ERROR_RETRIES = 2;
+    static final int DEFAULT_TIMEOUT_RETRIES = 2;
+    static final long DEFAULT_BASE_DELAY_MS = 1000;
+    static final long DEFAULT_MAX_DELAY_MS = 16 * 1000;
+    static final double DEFAULT_JITTER = 0.5;
+
+    private final Handler mHandler;
+    private final Backoff mBackoff;
+    // Retries allowed per error code.
+    private final SparseIntArray mBudgets = new SparseIntArray();
+    // Retries made per error code during this attempt.
+    private final SparseIntArray mRetries = new SparseIntArray();
+    private int mTotalRetries = 0;
+    private Runnable mPending = null;
+
+    public ConnectionRetryScheduler(Handler handler) {
+        this(handler, new Backoff(DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_JITTER));
+        mBudgets.put(ConnectionResult.NETWORK_ERROR, DEFAULT_NETWORK_ERROR_RETRIES);
+        mBudgets.put(ConnectionResult.INTERNAL_ERROR, DEFAULT_INTERNAL_ERROR_RETRIES);
+        mBudgets.put(ConnectionResult.TIMEOUT, DEFAULT_TIMEOUT_RETRIES);
+    }
+
+    /**
+     * Creates a scheduler with no retry budgets; add them with {@link #setRetryBudget}.
+     */
+    public ConnectionRetryScheduler(Handler handler, Backoff backoff) {
+        mHandler = handler;
+        mBackoff = backoff;
+    }
+
+    /** Sets how many times a failure with the given ConnectionResult code is retried. */
+    public void setRetryBudget(int errorCode, int retries) {
+        mBudgets.put(errorCode, retries);
+    }
+
+    /**
+     * Schedules a retry for a failure, if the budget for its code allows it.
+     *
+     * @param errorCode
+     *          the ConnectionResult error code of the failure
+     * @param retry
+     *          what to run to retry
+     * @return whether a retry was scheduled
+     */
+    boolean schedule(int errorCode, Runnable retry) {
+        int used = mRetries.get(errorCode, 0);
+        if (used >= mBudgets.get(errorCode, 0)) {
+            return false;
+        }
+        cancel();
+        mRetries.put(errorCode, used + 1);
+        mPending = retry;
+        mHandler.postDelayed(retry, mBackoff.delayFor(mTotalRetries++));
+        return true;
+    }
+
+    /** Returns the number of retries made during this attempt. */
+    public int getRetryCount() {
+        return mTotalRetries;
+    }
+
+    /** Returns the number of retries made during this attempt for one error code. */
+    public int getRetryCount(int errorCode) {
+        return mRetries.get(errorCode, 0);
+    }
+
+    public boolean isRetryPending() {
+        return mPending != null;
+    }
+
+    /** Drops a scheduled retry, if any. */
+    void cancel() {
+        if (mPending != null) {
+            mHandler.removeCallbacks(mPending);
+            mPending = null;
+        }
+    }
+
+    /** Cancels any retry and restores the budgets. */
+    void reset() {
+        cancel();
+        mRetries.clear();
+        mTotalRetries = 0;
+    }
+
+    /** Called by the retry itself when it runs. */
+    void onRetryStarted() {
+        mPending = null;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.PowerManager;
+
+import java.lang.reflect.Method;
+
+/**
+ * Holds back the connects nobody asked for while they are bound to fail or cost too much.
+ *
+ * A connect the user didn't start, i.e. the automatic one of onStart() or a retry, is deferred
+ * while the device is offline, in battery saver mode or low on battery and not charging. The
+ * scheduler then listens to connectivity and battery broadcasts, only for as long as a connect
+ * is deferred, and runs the connect once conditions improve and have been stable for a moment,
+ * so a flapping network causes one connect rather than several. Sign-ins the user starts always
+ * connect right away.
+ *
+ * Needs the ACCESS_NETWORK_STATE permission, which the library's manifest requests. Battery
+ * saver mode is only known from API 21 on.
+ *
+ * Used on the helper's thread only.
+ */
+public class ConnectionScheduler {
+    static final long DEFAULT_SETTLE_DELAY_MS = 2000;
+    // Below this battery level, in percent, we don't connect in the background unless charging.
+    static final int DEFAULT_LOW_BATTERY_PERCENT = 15;
+
+    // Not in the SDK we compile against.
+    static final String ACTION_POWER_SAVE_MODE_CHANGED =
+            "android.os.action.POWER_SAVE_MODE_CHANGED";
+
+    private final Context mAppContext;
+    private final Handler mHandler;
+    private long mSettleDelayMs = DEFAULT_SETTLE_DELAY_MS;
+    private int mLowBatteryPercent = DEFAULT_LOW_BATTERY_PERCENT;
+    private boolean mEnabled = true;
+    // The deferred connect, null when none is.
+    private Runnable mDeferred = null;
+    private boolean mListening = false;
+    // PowerManager.isPowerSaveMode(), looked up once; null before API 21.
+    private static Method sIsPowerSaveMode = null;
+    private static boolean sPowerSaveLookedUp = false;
+    // Metrics.
+    private int mDeferredCount = 0;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onConditionsChanged();
+        }
+    };
+
+    // Runs the deferred connect once conditions stayed good for the settle delay.
+    private final Runnable mRunDeferred = new Runnable() {
+        @Override
+        public void run() {
+            if (mDeferred == null) {
+                return;
+            }
+            if (!canConnect()) {
+                // Got worse again while settling; keep waiting for the next broadcast.
+                return;
+            }
+            Runnable connect = mDeferred;
+            cancel();
+            connect.run();
+        }
+    };
+
+    public ConnectionScheduler(Context appContext, Handler handler) {
+        mAppContext = appContext;
+        mHandler = handler;
+    }
+
+    /** Enables or disables deferring; disabled, every connect runs right away. */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled && mDeferred != null) {
+            Runnable connect = mDeferred;
+            cancel();
+            connect.run();
+        }
+    }
+
+    /** Sets how long conditions must stay good before a deferred connect runs. */
+    public void setSettleDelay(long millis) {
+        mSettleDelayMs = millis;
+    }
+
+    /**
+     * Sets the battery level, in percent, below which we don't connect unless charging. Any
+     * level works, as the scheduler follows the battery level while a connect is deferred.
+     */
+    public void setLowBatteryPercent(int percent) {
+        mLowBatteryPercent = percent;
+    }
+
+    /**
+     * Runs a connect nobody asked for now if conditions allow, otherwise once they do. Replaces
+     * any connect deferred before.
+     *
+     * @return whether the connect ran now
+     */
+    boolean connectOrDefer(Runnable connect) {
+        if (!mEnabled || canConnect()) {
+            cancel();
+            connect.run();
+            return true;
+        }
+        mDeferred = connect;
+        mDeferredCount++;
+        listen();
+        return false;
+    }
+
+    /** Drops the deferred connect, if any, and stops listening. */
+    void cancel() {
+        mDeferred = null;
+        mHandler.removeCallbacks(mRunDeferred);
+        if (mListening) {
+            mAppContext.unregisterReceiver(mReceiver);
+            mListening = false;
+        }
+    }
+
+    public boolean isConnectDeferred() {
+        return mDeferred != null;
+    }
+
+    /** Returns how many connects were deferred. */
+    public int getDeferredCount() {
+        return mDeferredCount;
+    }
+
+    /** Returns whether a connect nobody asked for may run now. */
+    public boolean canConnect() {
+        return isOnline() && !isPowerSaveMode() && !isBatteryLow();
+    }
+
+    boolean isOnline() {
+        ConnectivityManager cm = (ConnectivityManager) mAppContext.getSystemService(
+                Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return true;
+        }
+        NetworkInfo info = cm.getActiveNetworkInfo();
+        return info != null && info.isConnected();
+    }
+
+    boolean isPowerSaveMode() {
+        Method isPowerSaveMode = lookUpPowerSaveMode();
+        if (isPowerSaveMode == null) {
+            return false;
+        }
+        PowerManager pm = (PowerManager) mAppContext.getSystemService(Context.POWER_SERVICE);
+        try {
+            return pm != null && (Boolean) isPowerSaveMode.invoke(pm);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    boolean isBatteryLow() {
+        // The battery broadcast is sticky, so this returns the last one without registering.
+        Intent battery = mAppContext.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return false;
+        }
+        if (battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0) {
+            return false;
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level >= 0 && scale > 0 && level * 100 < mLowBatteryPercent * scale;
+    }
+
+    private void listen() {
+        if (mListening) {
+            return;
+        }
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        // Not ACTION_BATTERY_OKAY: that is sent at the system's low level, which our threshold
+        // may be above, so we follow the level itself.
+        filter.addAction(Intent.ACTION_BATTERY_CHANGED);
+        filter.addAction(ACTION_POWER_SAVE_MODE_CHANGED);
+        mAppContext.registerReceiver(mReceiver, filter);
+        mListening = true;
+    }
+
+    void onConditionsChanged() {
+        // Wait for the state to settle, so a flapping network yields a single connect.
+        mHandler.removeCallbacks(mRunDeferred);
+        if (mDeferred != null && canConnect()) {
+            mHandler.postDelayed(mRunDeferred, mSettleDelayMs);
+        }
+    }
+
+    private static synchronized Method lookUpPowerSaveMode() {
+        if (!sPowerSaveLookedUp) {
+            sPowerSaveLookedUp = true;
+            try {
+                sIsPowerSaveMode = PowerManager.class.getMethod("isPowerSaveMode");
+            } catch (NoSuchMethodException e) {
+                sIsPowerSaveMode = null;
+            }
+        }
+        return sIsPowerSaveMode;
+    }
+}
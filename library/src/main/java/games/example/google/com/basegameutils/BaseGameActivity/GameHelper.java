@@ -0,0 +1,1974 @@
+/*
+ * Copyright (C) 2013 Google Inc.
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentSender.SendIntentException;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GooglePlayServicesUtil;
+import com.google.android.gms.common.api.Api;
+import com.google.android.gms.common.api.Api.ApiOptions.NoOptions;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.GamesActivityResultCodes;
+import com.google.android.gms.games.multiplayer.Invitation;
+import com.google.android.gms.games.multiplayer.Multiplayer;
+import com.google.android.gms.games.multiplayer.turnbased.TurnBasedMatch;
+import com.google.android.gms.games.request.GameRequest;
+// Only used for the type of mPlusApiOptions and setPlusApiOptions(), which don't load the Plus
+// classes; all other use of the Plus API is in PlusComponent.
+import com.google.android.gms.plus.Plus.PlusOptions;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+import static com.google.android.gms.games.Games.*;
+
+
+/**
+ * Created by Henrik Samuelsson on 2014-08-24.
+ */
+public class GameHelper implements GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener {
+
+    // Client request flags.
+    public final static int CLIENT_NONE = 0x00;
+    // What clients we requested, setup as bit flag representation.
+    int mRequestedClients = CLIENT_NONE;
+    public final static int CLIENT_GAMES = 0x01;
+    public final static int CLIENT_PLUS = 0x02;
+    public final static int CLIENT_APPSTATE = 0x04;
+    public final static int CLIENT_SNAPSHOT = 0x08;
+    public final static int CLIENT_ALL = CLIENT_GAMES | CLIENT_PLUS | CLIENT_APPSTATE |
+            CLIENT_SNAPSHOT;
+    static final String TAG = "GameHelper";
+    // Request code we use when invoking other Activities to complete the sign-in flow.
+    final static int RC_RESOLVE = 9001;
+    // Request code when invoking Activities whose result we don't care about.
+    final static int RC_UNUSED = 9002;
+    // Should we start the flow to sign the user in automatically on startup?
+    // If so, up to how many times in the life of the application?
+    static final int DEFAULT_MAX_SIGN_IN_ATTEMPTS = 3;
+    int mMaxAutoSignInAttempts = DEFAULT_MAX_SIGN_IN_ATTEMPTS;
+    private final String GAMEHELPER_SHARED_PREFS = "GAMEHELPER_SHARED_PREFS";
+    private final String KEY_SIGN_IN_CANCELLATIONS = "KEY_SIGN_IN_CANCELLATIONS";
+    // Are we expecting the result of a resolution flow?
+    boolean mExpectingResolution = false;
+    // Was the sign-in flow cancelled when we tried it?
+    // If true, we know not to try again automatically.
+    boolean mSignInCancelled = false;
+    /**
+     * The Activity we are bound to. We need to keep a reference to the Activity because some games
+     * methods requires an Activity (a Context won't do). We are careful not to leak these
+     * references: we only hold the Activity weakly, and release it onStop(). Use getActivity().
+     */
+    WeakReference<Activity> mActivity = null;
+    // App context.
+    Context mAppContext = null;
+    // Google API client builder used to create a GoogleApiClient.
+    GoogleApiClient.Builder mGoogleApiClientBuilder = null;
+    // API options to use when adding each API, null for none.
+    GamesOptions mGamesApiOptions = GamesOptions.builder().build();
+    PlusOptions mPlusApiOptions = null;
+    Api.ApiOptions.NoOptions mAppStateApiOptions = null;
+    // Google API client object that we manage. Volatile, since the caches' background threads
+    // read it and switchAccount() replaces it.
+    volatile GoogleApiClient mGoogleApiClient = null;
+    /*
+     * Whether to automatically try to sign in on onStart(). We only set this to true when the
+     * sign-in process fails or the user explicitly signs out. We set it back to false when the
+     * user initiates the sign in process.
+     */
+    boolean mConnectOnStart = true;
+    /*
+     * Whether user has specifically requested that the sign-in process begin. If false, then
+     * we are in the automatic sign-in attempt that we try once the Actiwity is started -- if true,
+     * then the user has already clicked a "Sign-in" button or similar.
+     */
+    boolean mUserInitiatedSignIn = false;
+    // The connection result we got from our last attempt to sign-in.
+    ConnectionResult mConnectionResult = null;
+    // Eventual error that happened during sign-in.
+    SignInFailureReason mSignInFailureReason = null;
+    // Show error dialog boxes or not?
+    boolean mShowErrorDialogs = true;
+    // Print debug logs?
+    boolean mDebugLog = false;
+    Handler mHandler;
+    /*
+     * If we got an invitation when we connected to the game client, it is here.
+     * Otherwise, it is null.
+     */
+    Invitation mInvitation;
+    /*
+     * If we got turn-based match when we connected to the game client, it is here.
+     * Otherwise, it is null.
+     */
+    TurnBasedMatch mTurnBasedMatch;
+    /*
+     * If we have incoming requests when we connected to the game client, they are here.
+     * Otherwise it is null.
+     */
+    ArrayList<GameRequest> mRequests;
+    // Listeners, the one given to setup() included.
+    final GameHelperListenerRegistry mListeners = new GameHelperListenerRegistry();
+    // Futures waiting for the outcome of the current sign-in attempt. Main thread only.
+    ArrayList<SignInFuture> mSignInFutures = new ArrayList<SignInFuture>();
+    // Background writer for Saved Games, created on first use.
+    SnapshotSaver mSnapshotSaver = null;
+    // Local cache of the AppState slots, created on first use.
+    AppStateCache mAppStateCache = null;
+    // Cache of leaderboard scores, created on first use.
+    LeaderboardCache mLeaderboardCache = null;
+    // Aggregations of loads that are running, cancelled on onStop().
+    final ArrayList<PendingResultAggregator> mAggregators =
+            new ArrayList<PendingResultAggregator>();
+    // Local copy of the turn-based matches, created on first use.
+    TurnBasedMatchStore mTurnBasedMatchStore = null;
+    // Rate limiter of Games API calls, created on first use.
+    GamesApiRateLimiter mRateLimiter = null;
+    // Work given to runWhenConnected() while disconnected, run in one go once connected.
+    final ArrayList<Runnable> mWhenConnected = new ArrayList<Runnable>();
+    // Cache of player and leaderboard images, created on first use.
+    PlayerImageCache mPlayerImageCache = null;
+    // Latest published sign-in state, readable from any thread.
+    volatile SignInState mSignInState = SignInState.INITIAL;
+    // ID of the signed-in player, looked up once per connection.
+    String mPlayerId = null;
+    // How we resume after a suspended connection, null to report suspensions right away.
+    ReconnectPolicy mReconnectPolicy = new ReconnectPolicy();
+    // Are we trying to resume a suspended connection without having told the listeners?
+    boolean mResuming = false;
+    // Makes the next attempt at resuming a suspended connection.
+    final Runnable mResumeAttempt = new Runnable() {
+        @Override
+        public void run() {
+            attemptResume();
+        }
+    };
+    // Gives up on resuming once the grace window has passed.
+    final Runnable mResumeGraceExpired = new Runnable() {
+        @Override
+        public void run() {
+            if (mResuming) {
+                debugLog("Could not resume within the grace window.");
+                stopResuming();
+                reportSuspension();
+            }
+        }
+    };
+    // Retries connection attempts that failed for transient reasons.
+    ConnectionRetryScheduler mRetryScheduler;
+    // Runs a retry scheduled by mRetryScheduler.
+    final Runnable mRetryConnect = new Runnable() {
+        @Override
+        public void run() {
+            mRetryScheduler.onRetryStarted();
+            debugLog("Retrying connection, retry #" + mRetryScheduler.getRetryCount());
+            if (!connectWhenReasonable()) {
+                mHandler.removeCallbacks(mNotifyNotConnecting);
+                mHandler.post(mNotifyNotConnecting);
+            }
+        }
+    };
+    // Holds back connects nobody asked for while offline or saving power.
+    ConnectionScheduler mConnectionScheduler;
+    // Runs a connect deferred by mConnectionScheduler.
+    final Runnable mDeferredConnect = new Runnable() {
+        @Override
+        public void run() {
+            if (getActivity() == null
+                    || (mGoogleApiClient != null && mGoogleApiClient.isConnecting())) {
+                return;
+            }
+            debugLog("Conditions improved, running the deferred connect.");
+            connect();
+        }
+    };
+    // Were any set*ApiOptions called? A prewarmed client only has the default options.
+    boolean mCustomApiOptions = false;
+    // How the connection of an adopted prewarmed client failed, handled on onStart().
+    ConnectionResult mPrewarmFailure = null;
+    // The connection hint of an adopted prewarmed client that had connected already, and
+    // whether its onConnected() is still to come.
+    Bundle mPrewarmHint = null;
+    boolean mAwaitingAdoptedConnection = false;
+    // The prewarmed client we claimed while it was still being built. Until mPrewarmBuilt hands
+    // it over, mGoogleApiClient is null.
+    GameHelperPrewarmer.Prewarmed mPendingPrewarm = null;
+    final Runnable mPrewarmBuilt = new Runnable() {
+        @Override
+        public void run() {
+            onPrewarmedClientBuilt();
+        }
+    };
+    // Reports a sign-in failure when onStart() doesn't connect, posted for one second later.
+    final Runnable mNotifyNotConnecting = new Runnable() {
+        @Override
+        public void run() {
+            notifyListener(false);
+        }
+    };
+    // Audit of the activities we were bound to, null unless enabled.
+    GameHelperAllocationAudit mAudit = null;
+    // Cookies of the open sign-in and resolution async trace sections, 0 when none is open.
+    int mSignInTraceCookie = 0;
+    int mResolveTraceCookie = 0;
+    // Field record of sign-in events, null unless enabled.
+    SignInTelemetry mTelemetry = null;
+    // When we started connecting, for timing the sign-in; 0 when not known.
+    long mConnectStartTime = 0;
+    // Account to sign in with, null for the device's default account.
+    String mAccountName = null;
+    // Components of the optional APIs we requested.
+    ArrayList<GameHelperComponent> mComponents = new ArrayList<GameHelperComponent>();
+    // Configuration done? Package-private, so that tests can set up a stand-in client.
+    boolean mSetupDone = false;
+    // Are we currently connecting?
+    private boolean mConnecting = false;
+    /**
+     * Constructs a GameHelper object, initially tied to the given Activity.
+     * After constructing this object, call @link{setup} from the onCreate()
+     * method of your Activity.
+     *
+     * @param activity
+     *          the activity that the object constructed shall be tied to
+     * @param clientsToUse
+     *          the API clients to use, depending the on CLIENTS_* flags settings
+     */
+    public GameHelper(Activity activity, int clientsToUse) {
+        mActivity = new WeakReference<Activity>(activity);
+        mAppContext = activity.getApplicationContext();
+        mRequestedClients = clientsToUse;
+        mHandler = new Handler();
+        mRetryScheduler = new ConnectionRetryScheduler(mHandler);
+        mConnectionScheduler = new ConnectionScheduler(mAppContext, mHandler);
+    }
+
+    /** Shows an error dialog that's appropriate for the failure reason. */
+    public static void showFailureDialog(Activity activity, int actResp,
+                                         int errorCode) {
+        if (activity == null) {
+            Log.e("GameHelper", "*** No Activity. Can't show failure dialog!");
+            return;
+        }
+        Dialog errorDialog = null;
+
+        switch (actResp) {
+            case GamesActivityResultCodes.RESULT_APP_MISCONFIGURED:
+                errorDialog = makeSimpleDialog(activity, GameHelperUtils.getString(
+                        activity, GameHelperUtils.R_APP_MISCONFIGURED));
+                break;
+            case GamesActivityResultCodes.RESULT_SIGN_IN_FAILED:
+                errorDialog = makeSimpleDialog(activity, GameHelperUtils.getString(
+                        activity, GameHelperUtils.R_SIGN_IN_FAILED));
+                break;
+            case GamesActivityResultCodes.RESULT_LICENSE_FAILED:
+                errorDialog = makeSimpleDialog(activity, GameHelperUtils.getString(
+                        activity, GameHelperUtils.R_LICENSE_FAILED));
+                break;
+            default:
+                // No meaningful Activity response code, so generate default Google
+                // Play services dialog
+                errorDialog = GooglePlayServicesUtil.getErrorDialog(errorCode,
+                        activity, RC_UNUSED, null);
+                if (errorDialog == null) {
+                    // get fallback dialog
+                    Log.e("GameHelper",
+                            "No standard error dialog available. Making fallback dialog.");
+                    errorDialog = makeSimpleDialog(
+                            activity,
+                            GameHelperUtils.getString(activity,
+                                    GameHelperUtils.R_UNKNOWN_ERROR)
+                                    + " "
+                                    + GameHelperUtils.errorCodeToString(errorCode));
+                }
+        }
+
+        errorDialog.show();
+    }
+
+    static Dialog makeSimpleDialog(Activity activity, String text) {
+        return (new AlertDialog.Builder(activity)).setMessage(text)
+                .setNeutralButton(android.R.string.ok, null).create();
+    }
+
+    static Dialog
+    makeSimpleDialog(Activity activity, String title, String text) {
+        return (new AlertDialog.Builder(activity)).setMessage(text)
+                .setTitle(title).setNeutralButton(android.R.string.ok, null)
+                .create();
+    }
+
+    /**
+     * Sets the maximum number of automatic sign-in attempts to be made on
+     * application startup. This maximum is over the lifetime of the application
+     * (it is stored in a SharedPreferences file). So, for example, if you
+     * specify 2, then it means that the user will be prompted to sign in on app
+     * startup the first time and, if they cancel, a second time the next time
+     * the app starts, and, if they cancel that one, never again. Set to 0 if
+     * you do not want the user to be prompted to sign in on application
+     * startup.
+     *
+     * @param max
+     *      number of occasions a user will be requested to sign in
+     */
+    public void setMaxAutoSignAttempts(int max) {
+        mMaxAutoSignInAttempts = max;
+    }
+
+    void assertConfigured(String operation) {
+        if( !mSetupDone ) {
+            String error = "GameHelper error: Operation attempted without setup:"
+                    + operation
+                    + ". The setup() method must be called before attempting any other operation";
+            logError(error);
+            throw new IllegalStateException(error);
+        }
+    }
+
+    private void doApiOptionPreCheck() {
+        if (mGoogleApiClientBuilder != null) {
+            String error = "GameHelper: you cannot call set*ApiOptions after the client " +
+                    "builder has been created. Call it before calling createApiClientBuilder() " +
+                    "or setup().";
+            logError(error);
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /**
+     * Sets how to resume after the connection to Play services is suspended. Pass null to report
+     * every suspension to the listeners as a sign-in failure right away.
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        mReconnectPolicy = policy;
+    }
+
+    /**
+     * Returns the scheduler that retries transient connection failures, e.g. to change the
+     * retry budget of an error code.
+     */
+    public ConnectionRetryScheduler getRetryScheduler() {
+        return mRetryScheduler;
+    }
+
+    /**
+     * Sets the options to pass when setting up the Games API. Call before
+     * setup().
+     */
+    public void setGamesApiOptions(GamesOptions options) {
+        doApiOptionPreCheck();
+        mCustomApiOptions = true;
+        mGamesApiOptions = options;
+    }
+
+    /**
+     * Sets the options to pass when setting up the Plus API. Call before setup().
+     * @param options Plus API options to be used
+     */
+    public void setPlusApiOptions(PlusOptions options) {
+        doApiOptionPreCheck();
+        mCustomApiOptions = true;
+        mPlusApiOptions = options;
+    }
+
+    /**
+     * Sets the options for the AppState API. Call before setup(). The AppState API takes no
+     * options, so the client is set up the same either way.
+     * @param options AppState api options
+     */
+    public void setAppStateApiOptions(NoOptions options) {
+        doApiOptionPreCheck();
+        mCustomApiOptions = true;
+        mAppStateApiOptions = options;
+    }
+
+    /**
+     * Creates a GoogleApiClient.Builder for use with @link{#setup}. Normally, you do not have to
+     * do this; use this method only if you need to make nonstandard setup (e.g adding extra scopes
+     * for other APIs) on the GooglApiClient.Builder before calling @link{#setup}.
+     */
+    public GoogleApiClient.Builder createApiClentBuilder() {
+        if(mSetupDone) {
+            String error = "GameHelper: You called GameHelper.createApiClientBuilder() after "
+                    + "calling setup. You can only get a client builder BEFORE performing setup";
+            logError(error);
+            throw new IllegalStateException(error);
+        }
+
+        // Built with the application context, so the client doesn't keep the Activity alive;
+        // resolutions and dialogs get the Activity from getActivity() when they need it.
+        GoogleApiClient.Builder builder = new GoogleApiClient.Builder(mAppContext, this, this);
+        mComponents = addApis(builder, mRequestedClients, this);
+        if (mAccountName != null) {
+            builder.setAccountName(mAccountName);
+        }
+
+        mGoogleApiClientBuilder = builder;
+        return builder;
+    }
+
+    /**
+     * Sets the account to sign in with, instead of letting the user pick one. Call before
+     * setup(); afterwards, use {@link #switchAccount}.
+     */
+    public void setAccountName(String accountName) {
+        if (mSetupDone) {
+            String error = "GameHelper: setAccountName() after setup(); use switchAccount().";
+            logError(error);
+            throw new IllegalStateException(error);
+        }
+        mAccountName = accountName;
+    }
+
+    /** Returns the account we sign in with, or null for the default account. */
+    public String getAccountName() {
+        return mAccountName;
+    }
+
+    /**
+     * Switches to another account. Unlike signOut() followed by beginUserInitiatedSignIn(), the
+     * current account isn't signed out of the games service, and an account that signed in
+     * before connects without the account picker, as Play services keeps its authorization.
+     * The player data cached for the current account is dropped; each account keeps its own
+     * count of cancelled sign-ins. Connects at once if the Activity is started, otherwise on the
+     * next onStart().
+     *
+     * @param accountName
+     *          the account to switch to, null for the default account
+     */
+    public void switchAccount(String accountName) {
+        assertConfigured("switchAccount");
+        if (accountName == null ? mAccountName == null : accountName.equals(mAccountName)) {
+            debugLog("switchAccount(): already on that account.");
+            return;
+        }
+        debugLog("Switching account.");
+        mHandler.removeCallbacks(mNotifyNotConnecting);
+        stopResuming();
+        mRetryScheduler.cancel();
+        mRetryScheduler.reset();
+        // The old client is done with; it mustn't call back into us.
+        if (mPendingPrewarm != null) {
+            abandonPendingPrewarm();
+        } else {
+            mGoogleApiClient.unregisterConnectionCallbacks(this);
+            mGoogleApiClient.unregisterConnectionFailedListener(this);
+            if (mGoogleApiClient.isConnected() || mGoogleApiClient.isConnecting()) {
+                mGoogleApiClient.disconnect();
+            }
+        }
+        clearPlayerData();
+
+        mAccountName = accountName;
+        GoogleApiClient.Builder builder = new GoogleApiClient.Builder(mAppContext, this, this);
+        mComponents = addApis(builder, mRequestedClients, this);
+        if (accountName != null) {
+            builder.setAccountName(accountName);
+        }
+        mGoogleApiClient = builder.build();
+
+        // Every account gets a fresh sign-in attempt.
+        mConnectionResult = null;
+        mSignInFailureReason = null;
+        mSignInCancelled = false;
+        mUserInitiatedSignIn = false;
+        mExpectingResolution = false;
+        mConnecting = false;
+        mConnectOnStart = true;
+        mPlayerId = null;
+        mInvitation = null;
+        mTurnBasedMatch = null;
+        mRequests = null;
+        publishSignInState();
+
+        if (getActivity() != null) {
+            connect();
+        }
+    }
+
+    /**
+     * Adds the APIs and scopes of the requested clients to a builder. The Games API is added
+     * here, the others by their components, which are only loaded when requested.
+     *
+     * @param helper
+     *          the helper whose API options to use, or null for default options
+     * @return the components of the requested clients
+     */
+    static ArrayList<GameHelperComponent> addApis(GoogleApiClient.Builder builder, int clients,
+                                                  GameHelper helper) {
+        if (0 != (clients & CLIENT_GAMES)) {
+            builder.addApi(Games.API, helper != null ? helper.mGamesApiOptions
+                    : GamesOptions.builder().build());
+            builder.addScope(Games.SCOPE_GAMES);
+        }
+
+        ArrayList<GameHelperComponent> components = GameHelperComponents.forClients(clients);
+        for (GameHelperComponent component : components) {
+            component.addApi(builder, helper);
+        }
+        return components;
+    }
+
+    /**
+     * Performs setup on this GameHelper object. Call this from onCreate() method of your Activity.
+     * This will create the clients and do a few other initialization tasks. Next, call
+     * &link{#onStart} from the onStart() method of your Activity.
+     *
+     * @param listener
+     *          The listener to be notified of sign-in events.
+     */
+    public void setup(GameHelperListener listener) {
+        if (mSetupDone) {
+            String error = "GameHelper: You cannot call GameHelper.setup() more than once!";
+            logError(error);
+            throw new IllegalStateException(error);
+        }
+        boolean traced = GameHelperTrace.beginSection("GameHelper.setup");
+        try {
+            mListeners.add(listener, null);
+            debugLog("Setup - Requested clients: mRequestedClients ");
+
+            if (mGoogleApiClientBuilder == null && !mCustomApiOptions && mAccountName == null
+                    && adoptPrewarmedClient()) {
+                return;
+            }
+
+            if(mGoogleApiClientBuilder == null) {
+                createApiClentBuilder();
+            }
+
+            mGoogleApiClient = mGoogleApiClientBuilder.build();
+            mGoogleApiClientBuilder = null;
+            mSetupDone = true;
+        } finally {
+            GameHelperTrace.endSection(traced);
+        }
+    }
+
+    /**
+     * Takes over the client started by {@link GameHelperPrewarmer}, if there is one for our
+     * clients. If it is still being built, we wait for it without a client of our own; see
+     * {@link #onPrewarmedClientBuilt}.
+     *
+     * @return whether a prewarmed client was adopted
+     */
+    boolean adoptPrewarmedClient() {
+        GameHelperPrewarmer.Prewarmed prewarmed = GameHelperPrewarmer.claim(mRequestedClients,
+                mHandler, mPrewarmBuilt);
+        if (prewarmed == null) {
+            return false;
+        }
+        mSetupDone = true;
+        GoogleApiClient client = prewarmed.getClient();
+        if (client == null) {
+            debugLog("Setup - prewarmed client is still being built, waiting for it.");
+            mPendingPrewarm = prewarmed;
+        } else {
+            takeOverPrewarmedClient(prewarmed, client);
+        }
+        return true;
+    }
+
+    // Called on the main thread once the client we are waiting for is built. Carries on with a
+    // connect that onStart() or connect() couldn't do without a client.
+    void onPrewarmedClientBuilt() {
+        GameHelperPrewarmer.Prewarmed prewarmed = mPendingPrewarm;
+        if (prewarmed == null) {
+            // Given up on by switchAccount() or onDestroy().
+            return;
+        }
+        mPendingPrewarm = null;
+        GoogleApiClient client = prewarmed.getClient();
+        boolean connect = mConnecting;
+        if (client == null) {
+            Log.w(TAG, "GameHelper: the prewarmed client failed to build, building our own.");
+            createApiClentBuilder();
+            mGoogleApiClient = mGoogleApiClientBuilder.build();
+            mGoogleApiClientBuilder = null;
+        } else {
+            takeOverPrewarmedClient(prewarmed, client);
+        }
+        if (connect) {
+            connectOnStart();
+        }
+    }
+
+    // Gives up waiting for the prewarmed client; the prewarmer disconnects it.
+    void abandonPendingPrewarm() {
+        mHandler.removeCallbacks(mPrewarmBuilt);
+        GameHelperPrewarmer.abandon(mPendingPrewarm);
+        mPendingPrewarm = null;
+    }
+
+    // Makes the prewarmed client ours, along with what it went through so far.
+    void takeOverPrewarmedClient(GameHelperPrewarmer.Prewarmed prewarmed,
+            GoogleApiClient client) {
+        debugLog("Adopting prewarmed client.");
+        mGoogleApiClient = client;
+        mComponents = prewarmed.mComponents;
+        mConnecting = mGoogleApiClient.isConnecting();
+        mPrewarmFailure = prewarmed.mFailure;
+        // The prewarmer didn't tell when it started connecting.
+        mConnectStartTime = 0;
+
+        // If already connected, registering makes the client call onConnected() once more, but
+        // without the connection hint; onConnected() takes the hint the prewarmer got instead.
+        if (mGoogleApiClient.isConnected()) {
+            mPrewarmHint = prewarmed.mConnectionHint;
+            mAwaitingAdoptedConnection = true;
+        }
+        mGoogleApiClient.unregisterConnectionCallbacks(prewarmed);
+        mGoogleApiClient.unregisterConnectionFailedListener(prewarmed);
+        mGoogleApiClient.registerConnectionFailedListener(this);
+        mGoogleApiClient.registerConnectionCallbacks(this);
+        publishSignInState();
+    }
+
+    /**
+     * Adds a listener to be notified of sign-in events, in addition to the one given to
+     * {@link #setup}. May be called from any thread.
+     *
+     * @param listener
+     *          the listener
+     * @param executor
+     *          where to call the listener, or null to call it directly on the thread the helper
+     *          notifies from, i.e. the thread its lifecycle methods are called on
+     */
+    public void addListener(GameHelperListener listener, Executor executor) {
+        mListeners.add(listener, executor);
+    }
+
+    /** Removes a listener added with {@link #addListener} or {@link #setup}. */
+    public void removeListener(GameHelperListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Getter for the GoogleApiClient object. @link{setup} must have been called before this method
+     * can be used. If setup() claimed a prewarmed client that was still being built, there is no
+     * client until it is handed over, at the latest before sign-in succeeds.
+     */
+    public GoogleApiClient getApiClient() {
+        if (mGoogleApiClient == null) {
+            throw new IllegalStateException("No GoogleApiClient. Did you call setup()? Or the "
+                    + "prewarmed client isn't built yet.");
+        }
+        return mGoogleApiClient;
+    }
+
+    /**
+     * Returns the background writer for Saved Games. Requires CLIENT_GAMES and CLIENT_SNAPSHOT
+     * to have been requested.
+     */
+    public SnapshotSaver getSnapshotSaver() {
+        if ((CLIENT_GAMES | CLIENT_SNAPSHOT)
+                != (mRequestedClients & (CLIENT_GAMES | CLIENT_SNAPSHOT))) {
+            throw new IllegalStateException(
+                    "GameHelper: Saved Games need CLIENT_GAMES and CLIENT_SNAPSHOT.");
+        }
+        if (mSnapshotSaver == null) {
+            mSnapshotSaver = new SnapshotSaver(this);
+        }
+        return mSnapshotSaver;
+    }
+
+    /**
+     * Returns the local cache of the AppState slots. Requires CLIENT_APPSTATE to have been
+     * requested.
+     */
+    public AppStateCache getAppStateCache() {
+        if (0 == (mRequestedClients & CLIENT_APPSTATE)) {
+            throw new IllegalStateException(
+                    "GameHelper: the AppState cache needs CLIENT_APPSTATE.");
+        }
+        if (mAppStateCache == null) {
+            mAppStateCache = new AppStateCache(this, mAppContext);
+        }
+        return mAppStateCache;
+    }
+
+    /**
+     * Returns the cache in front of the leaderboard score loads. Requires CLIENT_GAMES to have
+     * been requested.
+     */
+    public LeaderboardCache getLeaderboardCache() {
+        if (0 == (mRequestedClients & CLIENT_GAMES)) {
+            throw new IllegalStateException(
+                    "GameHelper: the leaderboard cache needs CLIENT_GAMES.");
+        }
+        if (mLeaderboardCache == null) {
+            mLeaderboardCache = new LeaderboardCache(this);
+        }
+        return mLeaderboardCache;
+    }
+
+    /**
+     * Returns the rate limiter to issue Games API calls through, which drops its queued calls
+     * on signOut(). Requires CLIENT_GAMES to have been requested.
+     */
+    public GamesApiRateLimiter getRateLimiter() {
+        if (0 == (mRequestedClients & CLIENT_GAMES)) {
+            throw new IllegalStateException("GameHelper: the rate limiter needs CLIENT_GAMES.");
+        }
+        if (mRateLimiter == null) {
+            mRateLimiter = new GamesApiRateLimiter(this, mHandler);
+        }
+        return mRateLimiter;
+    }
+
+    /**
+     * Returns the local copy of the player's turn-based matches, kept up to date while
+     * connected and emptied on signOut(). Requires CLIENT_GAMES to have been requested.
+     */
+    public TurnBasedMatchStore getTurnBasedMatchStore() {
+        if (0 == (mRequestedClients & CLIENT_GAMES)) {
+            throw new IllegalStateException("GameHelper: the match store needs CLIENT_GAMES.");
+        }
+        if (mTurnBasedMatchStore == null) {
+            mTurnBasedMatchStore = new TurnBasedMatchStore(this);
+            if (isSignedIn()) {
+                mTurnBasedMatchStore.onConnected(null);
+            }
+        }
+        return mTurnBasedMatchStore;
+    }
+
+    /**
+     * Returns a new aggregator to wait for several loads at once. Aggregations still running on
+     * onStop() are cancelled.
+     */
+    public PendingResultAggregator newAggregator() {
+        return new PendingResultAggregator(this);
+    }
+
+    /** Returns the cache of player and leaderboard images, which is emptied on signOut(). */
+    public PlayerImageCache getPlayerImageCache() {
+        if (mPlayerImageCache == null) {
+            mPlayerImageCache = new PlayerImageCache(mAppContext);
+        }
+        return mPlayerImageCache;
+    }
+
+    /** Returns whether or not the user is signed in. */
+    public boolean isSignedIn() {
+        return mGoogleApiClient != null && mGoogleApiClient.isConnected();
+    }
+
+    /**
+     * Returns the latest snapshot of the sign-in state. Unlike {@link #isSignedIn()} this
+     * doesn't call into the API client, so it is safe and cheap to call every frame from any
+     * thread.
+     */
+    public SignInState getSignInState() {
+        return mSignInState;
+    }
+
+    /** Publishes a new sign-in state snapshot. Call after every change to the state it holds. */
+    void publishSignInState() {
+        int state = mGoogleApiClient != null && mGoogleApiClient.isConnected()
+                ? SignInState.CONNECTED
+                : mConnecting ? SignInState.CONNECTING : SignInState.DISCONNECTED;
+        SignInState previous = mSignInState;
+        mSignInState = new SignInState(previous.getVersion() + 1, state,
+                state == SignInState.CONNECTED ? mPlayerId : null, mInvitation != null,
+                mTurnBasedMatch != null, mRequests == null ? 0 : mRequests.size());
+    }
+
+    /** Returns whether or not we are currently connecting. */
+    public boolean isConnecting() {
+        return mConnecting;
+    }
+
+    /**
+     * Returns whether or not there was a (non-recoverable) error during the
+     * sign-in process.
+     */
+    public boolean hasSignInError() {
+        return mSignInFailureReason != null;
+    }
+
+    /**
+     * Returns the error that happened during the sign-in process, null if
+     * no error occurred.
+     */
+    public SignInFailureReason getSignInError() {
+        return mSignInFailureReason;
+    }
+
+    /** Set whether to show error dialogs or not. */
+    public void setShowErrorDialogs(boolean show) {
+        mShowErrorDialogs = show;
+    }
+
+    /** Call this method from your Activity's onStart(). */
+    public void onStart(Activity act) {
+        mActivity = new WeakReference<Activity>(act);
+        mAppContext = act.getApplicationContext();
+        if (mAudit != null) {
+            mAudit.onActivityBound(act);
+        }
+
+        boolean traced = GameHelperTrace.beginSection("GameHelper.onStart");
+        try {
+            debugLog("onStart");
+            record(SignInTelemetryDecoder.TYPE_START, 0, 0);
+            assertConfigured("onStart");
+            mListeners.startAttempt();
+
+            if (mConnectOnStart) {
+                if (mPendingPrewarm != null) {
+                    // onPrewarmedClientBuilt() carries on from here.
+                    debugLog("Waiting for the prewarmed client to be built.");
+                    mConnecting = true;
+                    publishSignInState();
+                } else {
+                    connectOnStart();
+                }
+            } else {
+                mPrewarmFailure = null;
+                debugLog("Not attempting to connect because mConnectOnStart = false.");
+                debugLog("Instead, reporting a sign-in failure");
+                mHandler.removeCallbacks(mNotifyNotConnecting);
+                mHandler.postDelayed(mNotifyNotConnecting, 1000);
+            }
+        } finally {
+            GameHelperTrace.endSection(traced);
+        }
+    }
+
+    // The connect of onStart(), for a client that may have been connecting before we got it.
+    void connectOnStart() {
+        if (mGoogleApiClient.isConnected()) {
+            // Happens when we adopted a prewarmed client that has connected already.
+            Log.w(TAG, "GameHelper: client was already connected on onStart()");
+            if (mAwaitingAdoptedConnection) {
+                // onConnected() is on its way and will notify.
+                mConnecting = true;
+                publishSignInState();
+            } else {
+                notifyListener(true);
+            }
+        } else if (mPrewarmFailure != null) {
+            debugLog("Handling the failure of the prewarmed connection.");
+            ConnectionResult failure = mPrewarmFailure;
+            mPrewarmFailure = null;
+            mConnecting = true;
+            onConnectionFailed(failure);
+        } else if (mGoogleApiClient.isConnecting()) {
+            debugLog("Client is already connecting.");
+            mConnecting = true;
+            publishSignInState();
+        } else if (mUserInitiatedSignIn || mConnectionScheduler.canConnect()) {
+            debugLog("Connecting client.");
+            mConnectionScheduler.cancel();
+            mConnecting = true;
+            beginSignInTrace();
+            mConnectStartTime = SystemClock.elapsedRealtime();
+            record(SignInTelemetryDecoder.TYPE_CONNECT, 0, 0);
+            mGoogleApiClient.connect();
+            publishSignInState();
+        } else {
+            // Reported as a failure for now, like not connecting at all; the listener
+            // hears of the success once the deferred connect goes through.
+            if (!connectWhenReasonable()) {
+                mHandler.removeCallbacks(mNotifyNotConnecting);
+                mHandler.postDelayed(mNotifyNotConnecting, 1000);
+            }
+        }
+    }
+
+    /** Call this method from your Activity's onStop(). */
+    public void onStop() {
+        debugLog("onStop");
+        record(SignInTelemetryDecoder.TYPE_STOP, 0, 0);
+        assertConfigured("onStop");
+        if (isSignedIn()) {
+            debugLog("Disconnecting client due to onStop");
+            mGoogleApiClient.disconnect();
+        } else {
+            debugLog("Client already disconnected when we got onStop");
+        }
+        mHandler.removeCallbacks(mNotifyNotConnecting);
+        stopResuming();
+        mRetryScheduler.cancel();
+        mConnectionScheduler.cancel();
+        if (mRateLimiter != null) {
+            mRateLimiter.pause();
+        }
+        if (!mAggregators.isEmpty()) {
+            debugLog("Cancelling " + mAggregators.size() + " aggregation(s) due to onStop");
+            for (PendingResultAggregator aggregator
+                    : new ArrayList<PendingResultAggregator>(mAggregators)) {
+                aggregator.cancel();
+            }
+        }
+        mConnecting = false;
+        mExpectingResolution = false;
+        mAwaitingAdoptedConnection = false;
+        mPrewarmHint = null;
+        mPlayerId = null;
+        publishSignInState();
+        // The attempt is over without an outcome; don't leave anyone blocked on it.
+        completeSignInFutures(false);
+
+        // Let go of the Activity reference
+        mActivity = null;
+    }
+
+    /**
+     * Call this method from your Activity's onDestroy(). Cancels everything the helper still
+     * has pending on its handler, so none of it runs after the Activity is gone.
+     */
+    public void onDestroy() {
+        debugLog("onDestroy");
+        mHandler.removeCallbacks(mNotifyNotConnecting);
+        stopResuming();
+        mRetryScheduler.cancel();
+        mConnectionScheduler.cancel();
+        if (mRateLimiter != null) {
+            mRateLimiter.pause();
+        }
+        completeSignInFutures(false);
+        if (mPendingPrewarm != null) {
+            abandonPendingPrewarm();
+        }
+        if (mSnapshotSaver != null) {
+            mSnapshotSaver.shutdown();
+            mSnapshotSaver = null;
+        }
+        mActivity = null;
+        if (mAudit != null) {
+            mAudit.onHelperDestroyed();
+            debugLog("Allocation audit: " + mAudit);
+        }
+    }
+
+    /** Returns the Activity we are bound to, or null between onStop() and onStart(). */
+    public Activity getActivity() {
+        return mActivity == null ? null : mActivity.get();
+    }
+
+    /**
+     * Enables or disables auditing of which activities the helper keeps reachable. Meant for
+     * debug builds; see {@link GameHelperAllocationAudit}.
+     */
+    public void enableAllocationAudit(boolean enabled) {
+        mAudit = enabled ? new GameHelperAllocationAudit() : null;
+        Activity activity = getActivity();
+        if (mAudit != null && activity != null) {
+            mAudit.onActivityBound(activity);
+        }
+    }
+
+    /** Returns the allocation audit, or null if it isn't enabled. */
+    public GameHelperAllocationAudit getAllocationAudit() {
+        return mAudit;
+    }
+
+    /**
+     * Enables or disables the on-device record of sign-in events, cheap enough to leave on in
+     * release builds. See {@link SignInTelemetry}.
+     */
+    public void enableTelemetry(boolean enabled) {
+        mTelemetry = enabled ? new SignInTelemetry(mAppContext) : null;
+    }
+
+    /** Returns the record of sign-in events, or null if it isn't enabled. */
+    public SignInTelemetry getTelemetry() {
+        return mTelemetry;
+    }
+
+    void record(byte type, int code, int value) {
+        if (mTelemetry != null) {
+            mTelemetry.record(type, code, value);
+        }
+    }
+
+    /**
+     * Returns the invitation ID received through an invitation notification. This
+     * should be called from your GomeHelperListener´s
+     * {@link GameHelperListener#onSignInSucceeded} method, to check if there´s an
+     * invitation available. In that case, accept the invitation.
+     *
+     * @return The id of the invitation, or null if none was received.
+     */
+    public String getInvitationId() {
+        if (!isSignedIn()) {
+            Log.w(TAG, "Warning: getInvitationId() should only be called when signed in, "
+            + "that is, after getting onSignInSuceeded()" );
+        }
+        return mInvitation == null ? null : mInvitation.getInvitationId();
+    }
+
+    public boolean hasInvitation() {
+        return mInvitation != null;
+    }
+
+    public boolean hasTurnBasedMatch() {
+        return mTurnBasedMatch != null;
+    }
+
+    public boolean hasRequest() {
+        return mRequests != null;
+    }
+
+    public void clearInvitation() {
+        mInvitation = null;
+        publishSignInState();
+    }
+
+    public void clearTurnBasedMatch() {
+        mTurnBasedMatch = null;
+        publishSignInState();
+    }
+
+    public void clearRequests() {
+        mRequests = null;
+        publishSignInState();
+    }
+
+    /**
+     * Returns the TurnedBasedMatch received through an invitation notification. This should be
+     * called from your GameHelperListener´s {@link GameHelperListener#onSignInSucceeded} method,
+     * to check if there´s a match available.
+     *
+     * @return The match, or null if none was received.
+     */
+    public TurnBasedMatch getTurnBasedMatch() {
+        if (!isSignedIn()) {
+            Log.w(TAG, "Warning: getTurnBasedMatch() should only be called when signed in, "
+            + "that is. after getting onSignInSuceeded().");
+        }
+        return mTurnBasedMatch;
+    }
+
+    /**
+     * Returns the requests received through the onConnected bundle. This should be called from
+     * your GameHelperListener's {@link GameHelperListener#onSignInSucceeded()} method, to check
+     * if there are incoming requests that must be handled.
+     *
+     * @return The requests, or null if none were received.
+     */
+    public ArrayList<GameRequest> getRequests() {
+        if (!isSignedIn()) {
+            Log.w(TAG, "Warning: getRequests() should only be called when signed in, "
+            + "that is after getting onSignInSuceeded().");
+        }
+        return mRequests;
+    }
+
+    /**
+     * Handling of connection failures.
+     *
+     * @param connectionResult information of why the connection attempt failed
+     */
+    @Override
+    public void onConnectionFailed(ConnectionResult connectionResult) {
+        debugLog("onConnectionFailed go!");
+
+        if (mResuming && mReconnectPolicy != null) {
+            // Still inside the grace window; keep trying, the grace timer reports if we can't.
+            debugLog("onConnectionFailed: failed to resume, code "
+                    + GameHelperUtils.errorCodeToString(connectionResult.getErrorCode()));
+            mHandler.postDelayed(mResumeAttempt, mReconnectPolicy.nextDelay());
+            return;
+        }
+
+        // Save the connection result for later reference.
+        mConnectionResult = connectionResult;
+        record(SignInTelemetryDecoder.TYPE_CONNECTION_FAILED, mConnectionResult.getErrorCode(),
+                mConnectionResult.hasResolution() ? 1 : 0);
+
+        debugLog("Connection failure info:");
+        debugLog("    - code: "
+                + GameHelperUtils.errorCodeToString(mConnectionResult.getErrorCode()));
+        debugLog("    - resolvable: " + mConnectionResult.hasResolution());
+        debugLog("    - details: " + mConnectionResult.toString());
+
+        if (!mConnectionResult.hasResolution()
+                && mRetryScheduler.schedule(mConnectionResult.getErrorCode(), mRetryConnect)) {
+            debugLog("onConnectionFailed: transient error, scheduled retry #"
+                    + mRetryScheduler.getRetryCount());
+            record(SignInTelemetryDecoder.TYPE_RETRY, mConnectionResult.getErrorCode(),
+                    mRetryScheduler.getRetryCount());
+            return;
+        }
+
+        int cancellations = getSignInCancellations();
+        boolean shouldResolve = false;
+
+        // Check if we shall resolve or not.
+        if (mUserInitiatedSignIn) {
+            debugLog("onConnectionFailed: Will resolve because user initiated sign-in.");
+            shouldResolve = true;
+        } else if (mSignInCancelled) {
+            debugLog("onConnectionFailed: Will not resolve because user already cancelled once.");
+            shouldResolve = false;
+        } else if (cancellations < mMaxAutoSignInAttempts) {
+            debugLog("onConnectionFailed: Will resolve because have attempts left trying to auto" +
+                    " sign in.");
+            shouldResolve = true;
+        } else {
+            debugLog("onConnectionFailed: Will not resolve because have no attempts left trying to" +
+                    " auto sign in.");
+            shouldResolve = false;
+        }
+
+        if(shouldResolve) {
+            debugLog("onConnectionFailed: resolving problem");
+            // Resolve the connection result. This usually means showing a dialog or
+            // starting an Activity that will allow the user to give the appropriate
+            // consents so that sign-in can be successful.
+            resolveConnectionResult();
+        } else {
+            // Handling of the case that we shall not resolve.
+            // Will then wait for user to start next sign in.
+            mRetryScheduler.reset();
+            mConnecting = false;
+            notifyListener(false);
+        }
+    }
+
+    /**
+     * Called when successfully obtain a connection to a client.
+     */
+    @Override
+    public void onConnected(Bundle bundle) {
+        debugLog("onConnected: connected!");
+        if (mAwaitingAdoptedConnection) {
+            mAwaitingAdoptedConnection = false;
+            if (bundle == null) {
+                bundle = mPrewarmHint;
+            }
+            mPrewarmHint = null;
+        }
+        record(SignInTelemetryDecoder.TYPE_CONNECTED, 0, mConnectStartTime == 0 ? -1
+                : (int) (SystemClock.elapsedRealtime() - mConnectStartTime));
+        mConnectStartTime = 0;
+        if (mResuming) {
+            debugLog("onConnected: resumed.");
+            stopResuming();
+        }
+
+        boolean traced = GameHelperTrace.beginSection("GameHelper.onConnected");
+        try {
+            if(bundle != null) {
+                debugLog("onConnected: connection information bundle provided, "
+                        + "checking for invite");
+                Invitation inv = bundle.getParcelable(Multiplayer.EXTRA_INVITATION);
+                if(inv != null && inv.getInvitationId() != null) {
+                    debugLog("onConnected: found a room invite.");
+                    debugLog("onConnected: invitation ID = " + inv.getInvitationId());
+                    mInvitation = inv;
+                }
+
+                // Check if there are any requests pending?
+                mRequests = Games.Requests.getGameRequestsFromBundle(bundle);
+                if (!mRequests.isEmpty()) {
+                    // We have requests in onConnected information bundle.
+                    debugLog("onConnected: found " + mRequests.size() + " request(s)");
+                }
+
+                debugLog("onConnected: checking for turn based match game information");
+                mTurnBasedMatch = bundle.getParcelable(Multiplayer.EXTRA_TURN_BASED_MATCH);
+            }
+        } finally {
+            GameHelperTrace.endSection(traced);
+        }
+
+        if (0 != (mRequestedClients & CLIENT_GAMES)) {
+            mPlayerId = loadCurrentPlayerId();
+        }
+
+        if (mAppStateCache != null) {
+            mAppStateCache.reconcile();
+        }
+        if (mRateLimiter != null) {
+            mRateLimiter.drain();
+        }
+        runWhenConnectedWork();
+        if (mSnapshotSaver != null) {
+            mSnapshotSaver.onConnected();
+        }
+        if (mTurnBasedMatchStore != null) {
+            mTurnBasedMatchStore.onConnected(mTurnBasedMatch);
+        }
+
+        succeedSignIn();
+    }
+
+    /** Called when we are disconnected from the Google API client. */
+    @Override
+    public void onConnectionSuspended(int cause) {
+        debugLog("onConnectionSuspended, cause=" + cause);
+        record(SignInTelemetryDecoder.TYPE_SUSPENDED, cause, 0);
+        if (mReconnectPolicy != null && !mResuming
+                && mReconnectPolicy.onSuspended(SystemClock.elapsedRealtime())) {
+            debugLog("Trying to resume within " + mReconnectPolicy.getGraceWindow() + " ms.");
+            mResuming = true;
+            mConnecting = true;
+            publishSignInState();
+            mHandler.postDelayed(mResumeGraceExpired, mReconnectPolicy.getGraceWindow());
+            mHandler.postDelayed(mResumeAttempt, mReconnectPolicy.nextDelay());
+            return;
+        }
+        stopResuming();
+        reportSuspension();
+    }
+
+    // Reconnects, unless the client is already doing that on its own.
+    void attemptResume() {
+        if (!mResuming || mReconnectPolicy == null || mGoogleApiClient.isConnected()) {
+            // If the policy was removed, the grace timer reports the suspension.
+            return;
+        }
+        if (mGoogleApiClient.isConnecting()) {
+            debugLog("Resume: client is already reconnecting.");
+            mHandler.postDelayed(mResumeAttempt, mReconnectPolicy.nextDelay());
+            return;
+        }
+        debugLog("Resume: reconnecting, attempt " + (mReconnectPolicy.getAttempts() + 1));
+        mConnectStartTime = SystemClock.elapsedRealtime();
+        mGoogleApiClient.connect();
+    }
+
+    void stopResuming() {
+        mResuming = false;
+        mHandler.removeCallbacks(mResumeAttempt);
+        mHandler.removeCallbacks(mResumeGraceExpired);
+    }
+
+    // Tears down the connection and tells the listeners we are no longer signed in.
+    void reportSuspension() {
+        disconnect();
+        mSignInFailureReason = null;
+        debugLog("Making extraordinary call to onSignInFailed callback");
+        mConnecting = false;
+        notifyListener(false);
+    }
+
+    /** Enables debug logging. */
+    public void enableDebugLog(boolean enabled) {
+        mDebugLog = enabled;
+        if(enabled) {
+            debugLog("Debug log enabled.");
+        }
+    }
+
+    void debugLog(String message) {
+        if (mDebugLog) {
+            Log.d(TAG, "GameHelper: " + message);
+        }
+    }
+
+    void logWarn(String message) {
+        Log.w(TAG, "!!! GameHelper WARNING: " + message);
+    }
+
+    void logError(String message) {
+        Log.e(TAG, "*** GameHelper ERROR: " + message);
+    }
+
+    /**
+     * Sign out and disconnect from the APIs
+     */
+    public void signOut() {
+        // Are we connected at the moment?
+        if (!isSignedIn()) {
+            debugLog("signOut(): Was already disconnected, ignoring request.");
+            return;
+        }
+
+        // Let the optional APIs sign out, e.g. Plus clears its default account.
+        for (GameHelperComponent component : mComponents) {
+            component.onSignOut(mGoogleApiClient);
+        }
+
+        // For the games client, signing out means calling signOut and disconnecting.
+        if( 0 != (mRequestedClients & CLIENT_GAMES) ) {
+            debugLog("Signing out from the Google API Client");
+            signOutOfGames();
+        }
+
+        record(SignInTelemetryDecoder.TYPE_SIGN_OUT, 0, 0);
+
+        clearPlayerData();
+
+        // Now all prepared to disconnect.
+        debugLog("Disconnecting client.");
+        mConnectOnStart = false;
+        mConnecting = false;
+        mGoogleApiClient.disconnect();
+        mPlayerId = null;
+        publishSignInState();
+    }
+
+    // The games service calls of the sign-in flow, separate so that tests can stand in for them.
+    String loadCurrentPlayerId() {
+        return Games.Players.getCurrentPlayerId(mGoogleApiClient);
+    }
+
+    void signOutOfGames() {
+        Games.signOut(mGoogleApiClient);
+    }
+
+    // Drops what we cached for the player, who signs out or switches accounts.
+    void clearPlayerData() {
+        mConnectionScheduler.cancel();
+        // Saves made by this player must not be written for the next one.
+        if (mSnapshotSaver != null) {
+            mSnapshotSaver.cancelPending();
+        }
+        if (mAppStateCache != null) {
+            mAppStateCache.clear();
+        }
+        if (mRateLimiter != null) {
+            mRateLimiter.clear();
+        }
+        mWhenConnected.clear();
+        if (mLeaderboardCache != null) {
+            mLeaderboardCache.evictAll();
+        }
+        if (mTurnBasedMatchStore != null) {
+            mTurnBasedMatchStore.clear();
+        }
+        if (mPlayerImageCache != null) {
+            mPlayerImageCache.evictAll();
+        }
+    }
+
+    /**
+     * Handling of activity result.
+     *
+     * Call this method from your Activity's onActivityResult callback. If the activity result
+     * is related to the sign-in process so will this be processed appropriately.
+     *
+     * @param requestCode TBD
+     * @param responseCode TBD
+     * @param intent TBD
+     */
+    public void onActivityResult(int requestCode, int responseCode, Intent intent) {
+        debugLog("onActivityResult: req = "
+                + (requestCode == RC_RESOLVE ? "RC_RESOLVE" : String.valueOf(requestCode))
+                + ", resp = "
+                + GameHelperUtils.activityResponseCodeToString(responseCode));
+
+        if(requestCode != RC_RESOLVE) {
+            debugLog("onActivityResult: request code not meant for us. Ignoring.");
+            return;
+        }
+
+        // No longer expecting a resolution.
+        mExpectingResolution = false;
+        if (mResolveTraceCookie != 0) {
+            GameHelperTrace.endAsyncSection("GameHelper.resolve", mResolveTraceCookie);
+            mResolveTraceCookie = 0;
+        }
+        record(SignInTelemetryDecoder.TYPE_RESOLVE_RESULT, 0, responseCode);
+
+        if (!mConnecting) {
+            debugLog("onActivityResult: ignoring because we are not connecting.");
+            return;
+        }
+
+        // We're coming back from an activity that was launched te resolve a connection problem.
+        // Can for example be the sign-in UI.
+        if (responseCode == Activity.RESULT_OK) {
+            // Ready to try to connect again.
+            debugLog("onAR: Resolution was RESULT_OK, so connecting current client again.");
+            connect();
+        } else if (responseCode == GamesActivityResultCodes.RESULT_RECONNECT_REQUIRED) {
+            debugLog("onAR: Resolution was reconnect required, so reconnecting.");
+            connect();
+        } else if (responseCode == Activity.RESULT_CANCELED) {
+            // User cancelled.
+            debugLog("onAR: Got an cancellation result, so disconnecting.");
+            mSignInCancelled = true;
+            mConnectOnStart = false;
+            mUserInitiatedSignIn = false;
+            mSignInFailureReason = null; // Cancelling is not a failure.
+            mConnecting = false;
+            mGoogleApiClient.disconnect();
+
+            // Increment number of cancellations.
+            int prevCancellations = getSignInCancellations();
+            int newCancellations = incrementSignInCancellations();
+            record(SignInTelemetryDecoder.TYPE_CANCELLED, 0, newCancellations);
+            debugLog("onAR: # of cancellations " + prevCancellations + " --> "
+            + newCancellations + ", max cancellations is " + mMaxAutoSignInAttempts);
+
+            notifyListener(false);
+        } else {
+            // Whatever the problem we were trying to solve, it was not solved. So give up and show
+            // an error message.
+            debugLog("onAR: responsCode = "
+            + GameHelperUtils.activityResponseCodeToString(responseCode)
+            + ", so giving up.");
+            giveUp(new SignInFailureReason(mConnectionResult != null
+                    ? mConnectionResult.getErrorCode() : ConnectionResult.INTERNAL_ERROR,
+                    responseCode));
+        }
+    }
+
+    void notifyListener(boolean success) {
+        debugLog("Notifying LISTENER of sign-in "
+                + (success ? "SUCCESS" : mSignInFailureReason != null ? "FAILURE (error)"
+                : "FAILURE (no error)"));
+        publishSignInState();
+        if (mSignInTraceCookie != 0) {
+            GameHelperTrace.endAsyncSection("GameHelper.signIn", mSignInTraceCookie);
+            mSignInTraceCookie = 0;
+        }
+        completeSignInFutures(success);
+        mListeners.dispatch(success);
+    }
+
+    // Completes the futures waiting for the outcome of the current attempt. Also called, with
+    // false, when an attempt is abandoned without notifying, so that no one waits forever.
+    void completeSignInFutures(boolean success) {
+        if (!mSignInFutures.isEmpty()) {
+            ArrayList<SignInFuture> futures = mSignInFutures;
+            mSignInFutures = new ArrayList<SignInFuture>();
+            for (SignInFuture future : futures) {
+                future.complete(success, mSignInFailureReason);
+            }
+        }
+    }
+
+    /**
+     * Starts a sign in initiated by the user. Can for example be called when the user clicks on a
+     * "Sign In" button. As a result, authentication/consent dialogs may show up. At the end of the
+     * process, the GameHelperListener's onSignInSucceeded() or SignInFailed() methods will be
+     * called.
+     */
+    public void beginUserInitiatedSignIn() {
+        debugLog("beginUserInitiatedSignIn: resetting attempt count.");
+        resetSignInCancellations();
+        mRetryScheduler.reset();
+        mSignInCancelled = false;
+        mConnectOnStart = true;
+
+        if (isSignedIn()) {
+            // Nothing to do.
+            logWarn("beginUserInitiatedSignIn() called when already connected. "
+                    + "Calling listener directly to notify of success.");
+            notifyListener(true);
+            return;
+        } else if (mConnecting) {
+            logWarn("beginUserInitiatedSignIn() called when already connecting. "
+                    + "Be patient! You can only call this method after you get an "
+                    + "onSignInSucceeded() or onSignInFailed() callback. Suggestion: disable "
+                    + "the sign-in button on startup and also when it's clicked, and re-enable "
+                    + "when you get the callback.");
+            // ignore call (listener will get a callback when the connection
+            // process finishes)
+            return;
+        }
+        debugLog("Starting USER-INITATED sign-in flow.");
+        // Set flag indicating that the user is actively trying to sign in, so we know if to show
+        // appropriate dialogs in case of connection problems.
+        mUserInitiatedSignIn = true;
+
+        if (mConnectionResult != null) {
+            // We have a pending connection result from a previous failure to sign in. Start
+            // by handling this.
+            debugLog("beginUserInitiatedSignIn: continuing pending sign-in flow.");
+            mListeners.startAttempt();
+            mConnecting = true;
+            publishSignInState();
+            resolveConnectionResult();
+        } else {
+            // We don´t have a pending connection result, so start a new.
+            debugLog("beginUserInitiatedSignIn: starting new sign-in flow.");
+            mConnecting = true;
+            connect();
+        }
+    }
+
+    /**
+     * Like {@link #beginUserInitiatedSignIn()}, but returns a future that completes with the
+     * outcome. May be called from any thread, e.g. the game loop.
+     *
+     * @return a future completing with true when signed in, false when sign-in failed
+     */
+    public SignInFuture beginUserInitiatedSignInAsync() {
+        final SignInFuture future = new SignInFuture();
+        runOnHelperThread(new Runnable() {
+            @Override
+            public void run() {
+                mSignInFutures.add(future);
+                beginUserInitiatedSignIn();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Connects without starting a user-initiated flow, so resolutions are only attempted while
+     * there are automatic sign-in attempts left. May be called from any thread.
+     *
+     * @return a future completing with true when signed in, false when sign-in failed
+     */
+    public SignInFuture connectAsync() {
+        final SignInFuture future = new SignInFuture();
+        runOnHelperThread(new Runnable() {
+            @Override
+            public void run() {
+                assertConfigured("connectAsync");
+                if (isSignedIn()) {
+                    future.complete(true, null);
+                    return;
+                }
+                mSignInFutures.add(future);
+                connect();
+            }
+        });
+        return future;
+    }
+
+    // Runs the task on the thread the helper lives on, right away if we're already on it.
+    void runOnHelperThread(Runnable task) {
+        if (Looper.myLooper() == mHandler.getLooper()) {
+            task.run();
+        } else {
+            mHandler.post(task);
+        }
+    }
+
+    /**
+     * Tries to resolve the connection result of the last failed attempt, by starting the
+     * Activity that lets the user solve it, e.g. the sign-in UI. Gives up if it can't be
+     * resolved.
+     */
+    void resolveConnectionResult() {
+        if (mExpectingResolution) {
+            debugLog("We're already expecting the result of a previous resolution.");
+            return;
+        }
+
+        Activity activity = getActivity();
+        if (activity == null) {
+            debugLog("No need to resolve issue, activity does not exist anymore");
+            completeSignInFutures(false);
+            return;
+        }
+
+        boolean traced = GameHelperTrace.beginSection("GameHelper.resolveConnectionResult");
+        try {
+            debugLog("resolveConnectionResult: trying to resolve result: " + mConnectionResult);
+            if (mConnectionResult.hasResolution()) {
+                // This problem can be fixed. So let's try to fix it.
+                debugLog("Result has resolution. Starting it.");
+                record(SignInTelemetryDecoder.TYPE_RESOLVE, mConnectionResult.getErrorCode(), 0);
+                try {
+                    mExpectingResolution = true;
+                    if (GameHelperTrace.isEnabled()) {
+                        mResolveTraceCookie = GameHelperTrace.nextCookie();
+                        GameHelperTrace.beginAsyncSection("GameHelper.resolve",
+                                mResolveTraceCookie);
+                    }
+                    mConnectionResult.startResolutionForResult(activity, RC_RESOLVE);
+                } catch (SendIntentException e) {
+                    // Try connecting again.
+                    debugLog("SendIntentException, so connecting again.");
+                    mExpectingResolution = false;
+                    if (mResolveTraceCookie != 0) {
+                        GameHelperTrace.endAsyncSection("GameHelper.resolve",
+                                mResolveTraceCookie);
+                        mResolveTraceCookie = 0;
+                    }
+                    connect();
+                }
+            } else {
+                // It's not a problem we can solve, so give up and show an error.
+                debugLog("resolveConnectionResult: result has no resolution. Giving up.");
+                giveUp(new SignInFailureReason(mConnectionResult.getErrorCode()));
+            }
+        } finally {
+            GameHelperTrace.endSection(traced);
+        }
+    }
+
+    /**
+     * Will do a API connect attempt and set relevant variables so that we know that we
+     * are connecting.
+     */
+    void connect() {
+        if (isSignedIn()) {
+            debugLog("Already connected.");
+            return;
+        }
+        if (mPendingPrewarm != null) {
+            // onPrewarmedClientBuilt() carries on from here.
+            debugLog("Connecting once the prewarmed client is built.");
+            mConnecting = true;
+            publishSignInState();
+            return;
+        }
+        boolean traced = GameHelperTrace.beginSection("GameHelper.connect");
+        try {
+            debugLog("Starting connection.");
+            // A failure onStart() still has to report is moot now, and so is a deferred connect.
+            mHandler.removeCallbacks(mNotifyNotConnecting);
+            mConnectionScheduler.cancel();
+            mListeners.startAttempt();
+            mConnecting = true;
+            mInvitation = null;
+            mTurnBasedMatch = null;
+            beginSignInTrace();
+            mConnectStartTime = SystemClock.elapsedRealtime();
+            record(SignInTelemetryDecoder.TYPE_CONNECT, 0, 0);
+            mGoogleApiClient.connect();
+            publishSignInState();
+        } finally {
+            GameHelperTrace.endSection(traced);
+        }
+    }
+
+    /**
+     * Connects now if the user asked for it or the network and battery allow it, otherwise
+     * defers the connect until they do.
+     *
+     * @return whether we are connecting now
+     */
+    boolean connectWhenReasonable() {
+        if (mUserInitiatedSignIn) {
+            connect();
+            return true;
+        }
+        if (mConnectionScheduler.connectOrDefer(mDeferredConnect)) {
+            return true;
+        }
+        debugLog("Deferring the connect until the network and battery allow it.");
+        record(SignInTelemetryDecoder.TYPE_DEFERRED, 0, 0);
+        mConnecting = false;
+        publishSignInState();
+        return false;
+    }
+
+    /**
+     * Runs Games work once we are connected. While connected, the work goes through the rate
+     * limiter in its "other" category. Otherwise it is kept and all of it runs in one batch as
+     * soon as the next connection is up, without waiting for budget, so deferred work shares a
+     * single connection. Starts connecting if sign-in is on and nothing is connecting yet,
+     * deferred while offline or saving power. Kept work is dropped on signOut(). Requires
+     * CLIENT_GAMES to have been requested.
+     *
+     * @param work
+     *          makes the Games API calls, using the helper's API client
+     */
+    public void runWhenConnected(Runnable work) {
+        assertConfigured("runWhenConnected");
+        if (isSignedIn()) {
+            getRateLimiter().submit(GamesApiRateLimiter.CATEGORY_OTHER,
+                    GamesApiRateLimiter.PRIORITY_DEFAULT, work);
+            return;
+        }
+        mWhenConnected.add(work);
+        if (mConnectOnStart && !mConnecting && getActivity() != null
+                && !mConnectionScheduler.isConnectDeferred()) {
+            connectWhenReasonable();
+        }
+    }
+
+    // Runs the work runWhenConnected() kept while we were disconnected.
+    void runWhenConnectedWork() {
+        if (mWhenConnected.isEmpty()) {
+            return;
+        }
+        debugLog("Running " + mWhenConnected.size() + " piece(s) of deferred work.");
+        ArrayList<Runnable> work = new ArrayList<Runnable>(mWhenConnected);
+        mWhenConnected.clear();
+        for (Runnable runnable : work) {
+            if (!isSignedIn()) {
+                // Disconnected by the work itself; keep the rest for the next connection.
+                mWhenConnected.add(runnable);
+                continue;
+            }
+            runnable.run();
+        }
+    }
+
+    /**
+     * Returns the scheduler that defers the connects nobody asked for while offline or saving
+     * power; see {@link ConnectionScheduler}.
+     */
+    public ConnectionScheduler getConnectionScheduler() {
+        return mConnectionScheduler;
+    }
+
+    // Opens the async section that spans a sign-in from connecting to its outcome.
+    void beginSignInTrace() {
+        if (GameHelperTrace.isEnabled() && mSignInTraceCookie == 0) {
+            mSignInTraceCookie = GameHelperTrace.nextCookie();
+            GameHelperTrace.beginAsyncSection("GameHelper.signIn", mSignInTraceCookie);
+        }
+    }
+
+    /**
+     * Disconnects the API client, then connects again.
+     */
+    public void reconnectClient() {
+        if (!isSignedIn()) {
+            Log.w(TAG, "reconnectClient() called when client is not connected.");
+            // Handle this situation as a request to connect.
+            connect();
+        } else {
+            debugLog("Reconnecting client.");
+            mConnectStartTime = SystemClock.elapsedRealtime();
+            mGoogleApiClient.reconnect();
+        }
+    }
+
+    /**
+     * Updates internal status to signed in.
+     *
+     * Changes relevant variables that keep track of sign in status and notifies listener that we
+     * are now signed in.
+     */
+    void succeedSignIn() {
+        debugLog("succeedSignIn: go!");
+        mRetryScheduler.reset();
+        mSignInFailureReason = null;
+        mConnectOnStart = true;
+        mUserInitiatedSignIn = false;
+        mConnecting = false;
+        notifyListener(true);
+    }
+
+    // Every account has its own count of cancellations; the default account keeps the old key.
+    String cancellationsKey() {
+        return mAccountName == null ? KEY_SIGN_IN_CANCELLATIONS
+                : KEY_SIGN_IN_CANCELLATIONS + ":" + mAccountName;
+    }
+
+    /**
+     * Gets the number of times the user has cancelled the sign-in flow in the life of the app.
+     *
+     * @return number of user sign-in cancellations
+     */
+    int getSignInCancellations() {
+        boolean traced = GameHelperTrace.beginSection("GameHelper.getSignInCancellations");
+        try {
+            SharedPreferences sp = mAppContext.getSharedPreferences(
+                    GAMEHELPER_SHARED_PREFS, Context.MODE_PRIVATE);
+            return sp.getInt(cancellationsKey(), 0);
+        } finally {
+            GameHelperTrace.endSection(traced);
+        }
+    }
+
+    /**
+     * Increments the counter that keeps track of how many time the user has cancelled the sign-in
+     * flow.
+     *
+     * @return The new number of cancellations.
+     */
+    int incrementSignInCancellations() {
+        boolean traced = GameHelperTrace.beginSection("GameHelper.incrementSignInCancellations");
+        try {
+            int cancellations = getSignInCancellations();
+            SharedPreferences.Editor editor = mAppContext.getSharedPreferences(
+                    GAMEHELPER_SHARED_PREFS, Context.MODE_PRIVATE).edit();
+            editor.putInt(cancellationsKey(), cancellations + 1);
+            editor.commit();
+            return cancellations + 1;
+        } finally {
+            GameHelperTrace.endSection(traced);
+        }
+    }
+
+    /**
+     * Reset the counter of how many times the user has cancelled the sign-in flow.
+     */
+    void resetSignInCancellations() {
+        boolean traced = GameHelperTrace.beginSection("GameHelper.resetSignInCancellations");
+        try {
+            SharedPreferences.Editor editor = mAppContext.getSharedPreferences(
+                    GAMEHELPER_SHARED_PREFS, Context.MODE_PRIVATE).edit();
+            editor.putInt(cancellationsKey(), 0);
+            editor.commit();
+        } finally {
+            GameHelperTrace.endSection(traced);
+        }
+    }
+
+    /**
+     * Will disconnect the API client if it is connected.
+     */
+    public void disconnect() {
+        if (isSignedIn()) {
+            debugLog("Disconnecting client.");
+            mGoogleApiClient.disconnect();
+        } else {
+            Log.w(TAG,
+                    "disconnect() called when client was already disconnected.");
+        }
+    }
+
+    /**
+     * Give up on signing in due to an error.
+     *
+     * Shows the appropriate error message to the user, using a standard error
+     * dialog as appropriate to the cause of the error. That dialog will indicate
+     * to the user how the problem can be solved (for example,
+     * re-enable Google Play Services, upgrade to a new version, etc).
+     */
+    void giveUp(SignInFailureReason reason) {
+        boolean traced = GameHelperTrace.beginSection("GameHelper.giveUp");
+        try {
+            reason.mRetryCount = mRetryScheduler.getRetryCount();
+            record(SignInTelemetryDecoder.TYPE_GAVE_UP, reason.mServiceErrorCode,
+                    reason.mActivityResultCode);
+            mRetryScheduler.reset();
+            mConnectOnStart = false;
+            disconnect();
+            mSignInFailureReason = reason;
+
+            if (reason.mActivityResultCode
+                    == GamesActivityResultCodes.RESULT_APP_MISCONFIGURED) {
+                // print debug info for the developer
+                GameHelperUtils.printMisconfiguredDebugInfo(mAppContext);
+            }
+
+            showFailureDialog();
+            mConnecting = false;
+            notifyListener(false);
+        } finally {
+            GameHelperTrace.endSection(traced);
+        }
+    }
+
+    public void showFailureDialog() {
+        if (mSignInFailureReason != null) {
+            int errorCode = mSignInFailureReason.getServiceErrorCode();
+            int actResp = mSignInFailureReason.getActivityResultCode();
+
+            if (mShowErrorDialogs) {
+                boolean traced = GameHelperTrace.beginSection("GameHelper.showFailureDialog");
+                try {
+                    showFailureDialog(getActivity(), actResp, errorCode);
+                } finally {
+                    GameHelperTrace.endSection(traced);
+                }
+            } else {
+                debugLog("Not showing error dialog because mShowErrorDialogs==false. "
+                        + "" + "Error was: " + mSignInFailureReason);
+            }
+        }
+    }
+
+    public Dialog makeSimpleDialog(String text) {
+        Activity activity = getActivity();
+        if (activity == null) {
+            logError("*** makeSimpleDialog failed: no current Activity!");
+            return null;
+        }
+        return makeSimpleDialog(activity, text);
+    }
+
+    public Dialog makeSimpleDialog(String title, String text) {
+        Activity activity = getActivity();
+        if (activity == null) {
+            logError("*** makeSimpleDialog failed: no current Activity!");
+            return null;
+        }
+        return makeSimpleDialog(activity, title, text);
+    }
+
+    // Not recommended for general use. This method forces the
+    // "connect on start" flag
+    // to a given state. This may be useful when using GameHelper in a
+    // non-standard
+    // sign-in flow.
+    public void setConnectOnStart(boolean connectOnStart) {
+        debugLog("Forcing mConnectOnStart=" + connectOnStart);
+        mConnectOnStart = connectOnStart;
+    }
+
+    /**
+     * Listener for events indicating success or failure of sign-in attempts.
+     */
+    public interface GameHelperListener {
+
+        /**
+         * Called when sign-in fails.
+         */
+        void onSignInFailed();
+
+        /**
+         * Called when sign-in succeeds.
+         */
+        void onSignInSucceeded();
+    }
+
+    // Represents the reason for a sign-in failure
+    public static class SignInFailureReason {
+        public static final int NO_ACTIVITY_RESULT_CODE = -100;
+        int mServiceErrorCode = 0;
+        int mActivityResultCode = NO_ACTIVITY_RESULT_CODE;
+        // Number of automatic retries made before giving up.
+        int mRetryCount = 0;
+
+        public SignInFailureReason(int serviceErrorCode, int activityResultCode) {
+            mServiceErrorCode = serviceErrorCode;
+            mActivityResultCode = activityResultCode;
+        }
+
+        public SignInFailureReason(int serviceErrorCode) {
+            this(serviceErrorCode, NO_ACTIVITY_RESULT_CODE);
+        }
+
+        public int getServiceErrorCode() {
+            return mServiceErrorCode;
+        }
+
+        public int getActivityResultCode() {
+            return mActivityResultCode;
+        }
+
+        public int getRetryCount() {
+            return mRetryCount;
+        }
+
+        @Override
+        public String toString() {
+            return "SignInFailureReason(serviceErrorCode:"
+                    + GameHelperUtils.errorCodeToString(mServiceErrorCode)
+                    + ((mActivityResultCode == NO_ACTIVITY_RESULT_CODE) ? ""
+                    : (",activityResultCode:"
+                    + GameHelperUtils
+                    .activityResponseCodeToString(mActivityResultCode)))
+                    + ",retries:" + mRetryCount + ")";
+        }
+    }
+
+}
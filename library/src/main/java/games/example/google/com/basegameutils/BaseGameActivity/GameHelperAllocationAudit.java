@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.app.Activity;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Audits which activities one GameHelper has been bound to, to catch the helper leaking them.
+ *
+ * Activities are only held weakly: once the helper is destroyed, every activity it was bound to
+ * should be collected, and {@link #countRetainedActivities()} reports the ones that still
+ * aren't. Call it some time after a GC, as a destroyed activity is only collectable, not
+ * collected. For what the helper allocates, use the allocation tracker of the Android tools.
+ *
+ * Enabled with {@link GameHelper#enableAllocationAudit(boolean)}; costs nothing when it isn't.
+ */
+public class GameHelperAllocationAudit {
+    // Activities the helper has been bound to.
+    private final ArrayList<WeakReference<Activity>> mBound =
+            new ArrayList<WeakReference<Activity>>();
+    // Has the helper been destroyed, so all bound activities should be gone?
+    private boolean mHelperDestroyed = false;
+
+    /** Records that the helper was bound to an activity, on onStart(). */
+    public synchronized void onActivityBound(Activity activity) {
+        for (WeakReference<Activity> ref : mBound) {
+            if (ref.get() == activity) {
+                return;
+            }
+        }
+        mBound.add(new WeakReference<Activity>(activity));
+    }
+
+    /** Records that the helper was destroyed, on onDestroy(). */
+    public synchronized void onHelperDestroyed() {
+        mHelperDestroyed = true;
+    }
+
+    /**
+     * Returns how many activities are still reachable although the helper was destroyed, or 0
+     * while the helper is in use. Activities that have been collected are forgotten.
+     */
+    public synchronized int countRetainedActivities() {
+        int retained = 0;
+        Iterator<WeakReference<Activity>> it = mBound.iterator();
+        while (it.hasNext()) {
+            if (it.next().get() == null) {
+                it.remove();
+            } else {
+                retained++;
+            }
+        }
+        return mHelperDestroyed ? retained : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "GameHelperAllocationAudit(retainedActivities:" + countRetainedActivities() + ")";
+    }
+}
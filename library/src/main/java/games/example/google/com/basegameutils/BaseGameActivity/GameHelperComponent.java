@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+
+/**
+ * An optional API the helper can connect to, other than the Games API.
+ *
+ * Each component is the only place that refers to the classes of its API, and is loaded by
+ * {@link GameHelperComponents} only when its CLIENT_* flag is requested. Games that don't ask
+ * for an API never load any of its classes.
+ */
+interface GameHelperComponent {
+
+    /**
+     * Adds the API and its scopes to a client builder.
+     *
+     * @param builder
+     *          the builder
+     * @param helper
+     *          the helper, for its API options; null when prewarming, meaning default options
+     */
+    void addApi(GoogleApiClient.Builder builder, GameHelper helper);
+
+    /** Called from signOut() while the client is still connected. */
+    void onSignOut(GoogleApiClient client);
+}
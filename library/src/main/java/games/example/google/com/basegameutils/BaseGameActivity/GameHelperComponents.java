@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import java.util.ArrayList;
+
+/**
+ * Creates the {@link GameHelperComponent}s for the requested clients.
+ *
+ * Each component is only created in the branch of its client, and classes are loaded when first
+ * used, so a component, and through it its API, is only loaded when its client is requested.
+ */
+final class GameHelperComponents {
+
+    private GameHelperComponents() {
+    }
+
+    /** Returns the components for the requested clients, in a fixed order. */
+    static ArrayList<GameHelperComponent> forClients(int clients) {
+        ArrayList<GameHelperComponent> components = new ArrayList<GameHelperComponent>(3);
+        if (0 != (clients & GameHelper.CLIENT_PLUS)) {
+            components.add(new PlusComponent());
+        }
+        if (0 != (clients & GameHelper.CLIENT_APPSTATE)) {
+            components.add(new AppStateComponent());
+        }
+        if (0 != (clients & GameHelper.CLIENT_SNAPSHOT)) {
+            components.add(new SnapshotComponent());
+        }
+        return components;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The set of {@link GameHelper.GameHelperListener}s of a helper.
+ *
+ * Listeners are kept in a copy-on-write array, so dispatching takes no lock and listeners may be
+ * added or removed from any thread, even from within a callback. Only adding and removing are
+ * serialized. Each listener is called on the executor it was registered with.
+ *
+ * Within one sign-in attempt, a listener is told an outcome only once: if the helper reports
+ * the same outcome again (e.g. success when beginUserInitiatedSignIn() is called while already
+ * connected), the listener isn't woken up. The helper calls {@link #startAttempt()} whenever it
+ * starts a new attempt, after which the next outcome is always delivered.
+ */
+public class GameHelperListenerRegistry {
+    static final int OUTCOME_NONE = 0;
+    static final int OUTCOME_SUCCESS = 1;
+    static final int OUTCOME_FAILURE = 2;
+
+    static final class Registration {
+        final GameHelper.GameHelperListener mListener;
+        final Executor mExecutor;
+        // Last outcome delivered to this listener during the current attempt.
+        final AtomicInteger mLastOutcome = new AtomicInteger(OUTCOME_NONE);
+
+        Registration(GameHelper.GameHelperListener listener, Executor executor) {
+            mListener = listener;
+            mExecutor = executor;
+        }
+    }
+
+    private final CopyOnWriteArrayList<Registration> mRegistrations =
+            new CopyOnWriteArrayList<Registration>();
+    // Notifications skipped because they repeated the last outcome.
+    private final AtomicInteger mCoalesced = new AtomicInteger();
+
+    /**
+     * Adds a listener. Adding a listener that is already registered does nothing.
+     *
+     * @param listener
+     *          the listener
+     * @param executor
+     *          where to call it, or null to call it on the helper's thread
+     */
+    public synchronized void add(GameHelper.GameHelperListener listener, Executor executor) {
+        if (listener == null || find(listener) != null) {
+            return;
+        }
+        mRegistrations.add(new Registration(listener,
+                executor == null ? SignInFuture.DIRECT : executor));
+    }
+
+    public synchronized void remove(GameHelper.GameHelperListener listener) {
+        Registration r = find(listener);
+        if (r != null) {
+            mRegistrations.remove(r);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mRegistrations.isEmpty();
+    }
+
+    /** Returns how many notifications were skipped as duplicates. */
+    public int getCoalescedCount() {
+        return mCoalesced.get();
+    }
+
+    /** Marks the start of a new sign-in attempt, so the next outcome reaches everyone. */
+    void startAttempt() {
+        for (Registration r : mRegistrations) {
+            r.mLastOutcome.set(OUTCOME_NONE);
+        }
+    }
+
+    /** Tells every listener the outcome, except those that were already told. */
+    void dispatch(final boolean success) {
+        int outcome = success ? OUTCOME_SUCCESS : OUTCOME_FAILURE;
+        for (final Registration r : mRegistrations) {
+            if (r.mLastOutcome.getAndSet(outcome) == outcome) {
+                mCoalesced.incrementAndGet();
+                continue;
+            }
+            r.mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (success) {
+                        r.mListener.onSignInSucceeded();
+                    } else {
+                        r.mListener.onSignInFailed();
+                    }
+                }
+            });
+        }
+    }
+
+    private Registration find(GameHelper.GameHelperListener listener) {
+        for (Registration r : mRegistrations) {
+            if (r.mListener == listener) {
+                return r;
+            }
+        }
+        return null;
+    }
+}
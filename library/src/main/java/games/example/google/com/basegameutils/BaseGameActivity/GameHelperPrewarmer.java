@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import java.util.ArrayList;
+
+/**
+ * Builds and starts connecting a GoogleApiClient before the first Activity is created.
+ *
+ * Call {@link #prewarm} from Application.onCreate(). The client is built and connect() is
+ * called on a background thread, so this costs the startup path next to nothing. The first
+ * {@link GameHelper} set up for the same clients, with default API options and without a
+ * builder of its own, then adopts the already-connecting client instead of starting from
+ * scratch. If the helper comes before the client is built, the client is handed over to it
+ * once the build finishes. If it isn't adopted, e.g. because the game asked for other clients,
+ * it is disconnected.
+ *
+ * Connection callbacks are delivered on the main thread, as for any GoogleApiClient. Until the
+ * client is adopted, the prewarmer remembers how the connection went and hands that to the
+ * helper.
+ */
+public final class GameHelperPrewarmer {
+    // Records what happens to the client until a helper takes over. The callbacks run on the
+    // main thread.
+    static final class Prewarmed implements GoogleApiClient.ConnectionCallbacks,
+            GoogleApiClient.OnConnectionFailedListener {
+        final int mClients;
+        // Set once built, unless abandoned by then. Guarded by this.
+        GoogleApiClient mClient = null;
+        boolean mAbandoned = false;
+        boolean mBuildDone = false;
+        // Posted when the build is done, if a helper claimed the client before that. Guarded
+        // by this.
+        Handler mHandOverHandler = null;
+        Runnable mHandOver = null;
+        // Components of the optional APIs the client was built with.
+        ArrayList<GameHelperComponent> mComponents = null;
+        ConnectionResult mFailure = null;
+        Bundle mConnectionHint = null;
+
+        Prewarmed(int clients) {
+            mClients = clients;
+        }
+
+        /** Returns the client, or null if it isn't built yet or failed to build. */
+        synchronized GoogleApiClient getClient() {
+            return mClient;
+        }
+
+        @Override
+        public void onConnected(Bundle connectionHint) {
+            mFailure = null;
+            mConnectionHint = connectionHint;
+        }
+
+        @Override
+        public void onConnectionSuspended(int cause) {
+            mConnectionHint = null;
+        }
+
+        @Override
+        public void onConnectionFailed(ConnectionResult result) {
+            mFailure = result;
+        }
+    }
+
+    // The client waiting to be adopted, and whether a helper has had its chance at it. Guarded
+    // by the class.
+    private static Prewarmed sPrewarmed = null;
+    private static boolean sClaimed = false;
+
+    private GameHelperPrewarmer() {
+    }
+
+    /**
+     * Starts building and connecting a client in the background. Call from
+     * Application.onCreate(). Only the first call has any effect.
+     *
+     * @param context
+     *          any context, only the application context is used
+     * @param clientsToUse
+     *          the API clients to use, as passed to the GameHelper constructor
+     */
+    public static void prewarm(Context context, int clientsToUse) {
+        final Context appContext = context.getApplicationContext();
+        final Prewarmed prewarmed = new Prewarmed(clientsToUse);
+        synchronized (GameHelperPrewarmer.class) {
+            if (sPrewarmed != null || sClaimed) {
+                return;
+            }
+            sPrewarmed = prewarmed;
+        }
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                GoogleApiClient client = null;
+                try {
+                    GoogleApiClient.Builder builder = new GoogleApiClient.Builder(appContext,
+                            prewarmed, prewarmed);
+                    prewarmed.mComponents = GameHelper.addApis(builder, prewarmed.mClients,
+                            null);
+                    client = builder.build();
+                    client.connect();
+                } catch (RuntimeException ex) {
+                    Log.w(GameHelper.TAG, "GameHelperPrewarmer: prewarm failed: " + ex);
+                    client = null;
+                }
+                synchronized (prewarmed) {
+                    prewarmed.mBuildDone = true;
+                    if (prewarmed.mAbandoned) {
+                        if (client != null) {
+                            client.disconnect();
+                        }
+                        return;
+                    }
+                    prewarmed.mClient = client;
+                    if (prewarmed.mHandOver != null) {
+                        prewarmed.mHandOverHandler.post(prewarmed.mHandOver);
+                    }
+                }
+            }
+        }, "GameHelperPrewarm");
+        thread.start();
+    }
+
+    /**
+     * Hands the prewarmed client to a helper, if it was built for the same clients. Called on
+     * the main thread from setup(), so it doesn't wait for the background thread: if the client
+     * isn't built yet, handOver is posted to handler once the build is done, and the helper
+     * takes the client from the record then. getClient() of the record is still null at that
+     * point if the build failed.
+     *
+     * @return the prewarmed client record, or null if there is none to adopt
+     */
+    static Prewarmed claim(int clientsToUse, Handler handler, Runnable handOver) {
+        Prewarmed prewarmed;
+        synchronized (GameHelperPrewarmer.class) {
+            prewarmed = sPrewarmed;
+            if (prewarmed == null || sClaimed) {
+                return null;
+            }
+            // Whatever happens, no one else gets this client.
+            sClaimed = true;
+            sPrewarmed = null;
+        }
+
+        if (prewarmed.mClients != clientsToUse) {
+            Log.w(GameHelper.TAG, "GameHelperPrewarmer: prewarmed for clients "
+                    + prewarmed.mClients + " but the helper wants " + clientsToUse
+                    + ", not using it.");
+            abandon(prewarmed);
+            return null;
+        }
+        synchronized (prewarmed) {
+            if (!prewarmed.mBuildDone) {
+                prewarmed.mHandOverHandler = handler;
+                prewarmed.mHandOver = handOver;
+            } else if (prewarmed.mClient == null) {
+                // The build failed; there is nothing to adopt.
+                return null;
+            }
+        }
+        return prewarmed;
+    }
+
+    /**
+     * Gives up a claimed client: disconnects it, or has the background thread do so if it
+     * isn't built yet. No hand-over is posted after this.
+     */
+    static void abandon(Prewarmed prewarmed) {
+        GoogleApiClient client;
+        synchronized (prewarmed) {
+            prewarmed.mAbandoned = true;
+            prewarmed.mHandOver = null;
+            client = prewarmed.mClient;
+            prewarmed.mClient = null;
+        }
+        if (client != null) {
+            client.disconnect();
+        }
+    }
+}
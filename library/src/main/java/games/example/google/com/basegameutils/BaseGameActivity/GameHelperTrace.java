@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+
+/**
+ * Trace sections around the helper's work, shown in systrace next to the platform's own.
+ *
+ * Sections nest and must be ended on the thread that began them, so callers end them in a
+ * finally block, passing what beginSection() returned: a section begun while tracing was
+ * disabled isn't ended, even if tracing was enabled meanwhile, and the other way round. Async
+ * sections may end on any thread and span callbacks, e.g. a sign-in from connect() to its
+ * outcome; the cookie tells apart overlapping ones of the same name.
+ *
+ * Disabled by default, and always before API 18. While disabled each call is a single check of
+ * a static flag. Async sections need hidden platform methods and are skipped where those can't
+ * be found.
+ */
+public final class GameHelperTrace {
+    static final String TAG = "GameHelperTrace";
+
+    private static volatile boolean sEnabled = false;
+    // Async section methods, looked up when first enabled.
+    private static Method sAsyncBegin = null;
+    private static Method sAsyncEnd = null;
+    // The trace tag to pass to the async methods that take one, null for those that don't.
+    private static Long sAsyncTag = null;
+    private static boolean sAsyncLookedUp = false;
+    private static int sNextCookie = 1;
+
+    private GameHelperTrace() {
+    }
+
+    /** Enables or disables the helper's trace sections. Has no effect before API 18. */
+    public static synchronized void setEnabled(boolean enabled) {
+        if (Build.VERSION.SDK_INT < 18) {
+            return;
+        }
+        if (enabled && !sAsyncLookedUp) {
+            lookUpAsyncMethods();
+        }
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Begins a section on the calling thread; end it with {@link #endSection(boolean)}.
+     *
+     * @return whether a section was begun
+     */
+    static boolean beginSection(String name) {
+        if (sEnabled) {
+            Api18.beginSection(name);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Ends the section the calling thread began last.
+     *
+     * @param began
+     *          what beginSection() returned for it
+     */
+    static void endSection(boolean began) {
+        if (began) {
+            Api18.endSection();
+        }
+    }
+
+    /** Begins an async section; end it with the same name and cookie. */
+    static void beginAsyncSection(String name, int cookie) {
+        if (sEnabled && sAsyncBegin != null) {
+            invokeAsync(sAsyncBegin, name, cookie);
+        }
+    }
+
+    static void endAsyncSection(String name, int cookie) {
+        if (sEnabled && sAsyncEnd != null) {
+            invokeAsync(sAsyncEnd, name, cookie);
+        }
+    }
+
+    /** Returns a cookie for a new async section, never 0. */
+    static synchronized int nextCookie() {
+        int cookie = sNextCookie++;
+        if (sNextCookie == 0) {
+            sNextCookie = 1;
+        }
+        return cookie;
+    }
+
+    // Newer platforms have public methods without a tag, older ones hidden ones with a tag.
+    private static void lookUpAsyncMethods() {
+        sAsyncLookedUp = true;
+        try {
+            sAsyncBegin = Trace.class.getMethod("beginAsyncSection", String.class, int.class);
+            sAsyncEnd = Trace.class.getMethod("endAsyncSection", String.class, int.class);
+            return;
+        } catch (NoSuchMethodException e) {
+            // Try the hidden methods.
+        }
+        try {
+            sAsyncTag = Trace.class.getField("TRACE_TAG_APP").getLong(null);
+            sAsyncBegin = Trace.class.getMethod("asyncTraceBegin", long.class, String.class,
+                    int.class);
+            sAsyncEnd = Trace.class.getMethod("asyncTraceEnd", long.class, String.class,
+                    int.class);
+        } catch (Exception e) {
+            Log.w(TAG, "Async trace sections not available: " + e);
+            sAsyncBegin = null;
+            sAsyncEnd = null;
+        }
+    }
+
+    private static void invokeAsync(Method method, String name, int cookie) {
+        try {
+            if (sAsyncTag != null) {
+                method.invoke(null, sAsyncTag, name, cookie);
+            } else {
+                method.invoke(null, name, cookie);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Disabling async trace sections: " + e);
+            sAsyncBegin = null;
+            sAsyncEnd = null;
+        }
+    }
+
+    // Keeps the references to android.os.Trace out of classes loaded before API 18.
+    private static class Api18 {
+        static void beginSection(String name) {
+            Trace.beginSection(name);
+        }
+
+        static void endSection() {
+            Trace.endSection();
+        }
+    }
+}
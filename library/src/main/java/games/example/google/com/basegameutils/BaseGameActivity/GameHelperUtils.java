@@ -10,6 +10,8 @@ import android.util.Log;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.games.GamesActivityResultCodes;
 
+import games.example.google.com.basegameutils.R;
+
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
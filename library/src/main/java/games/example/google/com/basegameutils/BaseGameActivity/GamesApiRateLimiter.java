@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.PriorityQueue;
+
+/**
+ * Smooths bursts of Games API calls on the client, so they don't run into the server's
+ * throttling.
+ *
+ * Every category of calls has a token bucket: a call takes a token, and tokens come back at a
+ * steady rate up to the bucket's capacity, which is the burst allowed. A call that finds no
+ * token, or finds the helper signed out, is queued rather than dropped, and runs on the helper's
+ * handler as soon as its bucket has a token again. Queued calls run in order of priority, so
+ * user-visible reads go ahead of background writes, and in submission order within a priority.
+ * Signing out drops the queued calls, as they were made for the player who signed out.
+ *
+ * Use from the main thread; calls run there as well.
+ */
+public class GamesApiRateLimiter {
+    public static final int CATEGORY_LEADERBOARDS = 0;
+    public static final int CATEGORY_ACHIEVEMENTS = 1;
+    public static final int CATEGORY_EVENTS = 2;
+    public static final int CATEGORY_SNAPSHOTS = 3;
+    public static final int CATEGORY_MULTIPLAYER = 4;
+    public static final int CATEGORY_OTHER = 5;
+    static final int CATEGORY_COUNT = 6;
+
+    /** Something the user is waiting to see, e.g. a leaderboard being opened. */
+    public static final int PRIORITY_USER_VISIBLE = 0;
+    public static final int PRIORITY_DEFAULT = 1;
+    /** Something nobody waits for, e.g. submitting a score or incrementing an event. */
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    static final class Call implements Comparable<Call> {
+        final Runnable mTask;
+        final int mPriority;
+        final long mSequence;
+        final long mQueuedAt;
+
+        Call(Runnable task, int priority, long sequence, long queuedAt) {
+            mTask = task;
+            mPriority = priority;
+            mSequence = sequence;
+            mQueuedAt = queuedAt;
+        }
+
+        @Override
+        public int compareTo(Call other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : mSequence == other.mSequence ? 0 : 1;
+        }
+    }
+
+    static final class Bucket {
+        double mCapacity;
+        double mTokensPerMs;
+        double mTokens;
+        long mLastRefill;
+        final PriorityQueue<Call> mQueue = new PriorityQueue<Call>();
+        // Metrics.
+        int mImmediate = 0;
+        int mDeferred = 0;
+        int mMaxQueued = 0;
+        long mTotalDelayMs = 0;
+
+        Bucket(int capacity, double perSecond, long now) {
+            set(capacity, perSecond);
+            mTokens = capacity;
+            mLastRefill = now;
+        }
+
+        void set(int capacity, double perSecond) {
+            mCapacity = capacity;
+            mTokensPerMs = perSecond / 1000;
+            mTokens = Math.min(mTokens, capacity);
+        }
+
+        void refill(long now) {
+            mTokens = Math.min(mCapacity, mTokens + (now - mLastRefill) * mTokensPerMs);
+            mLastRefill = now;
+        }
+
+        long timeToToken() {
+            return mTokens >= 1 ? 0 : (long) Math.ceil((1 - mTokens) / mTokensPerMs);
+        }
+    }
+
+    private final GameHelper mHelper;
+    private final Handler mHandler;
+    private final Bucket[] mBuckets = new Bucket[CATEGORY_COUNT];
+    private long mNextSequence = 0;
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    public GamesApiRateLimiter(GameHelper helper, Handler handler) {
+        mHelper = helper;
+        mHandler = handler;
+        long now = SystemClock.elapsedRealtime();
+        mBuckets[CATEGORY_LEADERBOARDS] = new Bucket(5, 1, now);
+        mBuckets[CATEGORY_ACHIEVEMENTS] = new Bucket(10, 2, now);
+        mBuckets[CATEGORY_EVENTS] = new Bucket(10, 2, now);
+        mBuckets[CATEGORY_SNAPSHOTS] = new Bucket(3, 0.5, now);
+        mBuckets[CATEGORY_MULTIPLAYER] = new Bucket(20, 10, now);
+        mBuckets[CATEGORY_OTHER] = new Bucket(5, 1, now);
+    }
+
+    /**
+     * Sets the budget of a category.
+     *
+     * @param category
+     *          one of the CATEGORY_* constants
+     * @param burst
+     *          how many calls may run back to back
+     * @param perSecond
+     *          how many calls per second may run in the long run
+     */
+    public void setBudget(int category, int burst, double perSecond) {
+        Bucket bucket = mBuckets[category];
+        bucket.refill(SystemClock.elapsedRealtime());
+        bucket.set(burst, perSecond);
+    }
+
+    /**
+     * Runs a call now if its category has budget left, otherwise as soon as it has.
+     *
+     * @param category
+     *          one of the CATEGORY_* constants
+     * @param priority
+     *          one of the PRIORITY_* constants
+     * @param call
+     *          makes the Games API call, using the helper's API client
+     */
+    public void submit(int category, int priority, Runnable call) {
+        Bucket bucket = mBuckets[category];
+        long now = SystemClock.elapsedRealtime();
+        bucket.refill(now);
+        if (bucket.mQueue.isEmpty() && bucket.mTokens >= 1 && mHelper.isSignedIn()) {
+            bucket.mTokens -= 1;
+            bucket.mImmediate++;
+            call.run();
+            return;
+        }
+
+        bucket.mQueue.add(new Call(call, priority, mNextSequence++, now));
+        bucket.mDeferred++;
+        bucket.mMaxQueued = Math.max(bucket.mMaxQueued, bucket.mQueue.size());
+        scheduleDrain();
+    }
+
+    /** Runs the queued calls there is budget for. The helper calls this once connected. */
+    void drain() {
+        mHandler.removeCallbacks(mDrain);
+        if (!mHelper.isSignedIn()) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        for (Bucket bucket : mBuckets) {
+            bucket.refill(now);
+            while (!bucket.mQueue.isEmpty() && bucket.mTokens >= 1) {
+                Call call = bucket.mQueue.poll();
+                bucket.mTokens -= 1;
+                bucket.mTotalDelayMs += now - call.mQueuedAt;
+                call.mTask.run();
+            }
+        }
+        scheduleDrain();
+    }
+
+    /** Stops draining until the helper connects again; queued calls are kept. */
+    void pause() {
+        mHandler.removeCallbacks(mDrain);
+    }
+
+    /** Drops the queued calls, e.g. when the player signs out. */
+    public void clear() {
+        mHandler.removeCallbacks(mDrain);
+        for (Bucket bucket : mBuckets) {
+            bucket.mQueue.clear();
+        }
+    }
+
+    // Schedules a drain for when the first bucket with queued calls has a token.
+    private void scheduleDrain() {
+        if (!mHelper.isSignedIn()) {
+            // drain() is called once connected.
+            return;
+        }
+        long wait = Long.MAX_VALUE;
+        for (Bucket bucket : mBuckets) {
+            if (!bucket.mQueue.isEmpty()) {
+                wait = Math.min(wait, bucket.timeToToken());
+            }
+        }
+        if (wait != Long.MAX_VALUE) {
+            mHandler.removeCallbacks(mDrain);
+            mHandler.postDelayed(mDrain, wait);
+        }
+    }
+
+    /** Returns how many calls of a category ran right away. */
+    public int getImmediateCount(int category) {
+        return mBuckets[category].mImmediate;
+    }
+
+    /** Returns how many calls of a category had to be queued. */
+    public int getDeferredCount(int category) {
+        return mBuckets[category].mDeferred;
+    }
+
+    /** Returns how many calls of a category are queued now. */
+    public int getQueuedCount(int category) {
+        return mBuckets[category].mQueue.size();
+    }
+
+    /** Returns the most calls of a category that were queued at once. */
+    public int getMaxQueuedCount(int category) {
+        return mBuckets[category].mMaxQueued;
+    }
+
+    /** Returns the total time queued calls of a category waited before running, in ms. */
+    public long getTotalDelayMs(int category) {
+        return mBuckets[category].mTotalDelayMs;
+    }
+}
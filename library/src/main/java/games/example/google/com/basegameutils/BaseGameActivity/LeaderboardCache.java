@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.os.SystemClock;
+import android.support.v4.util.LruCache;
+
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.GamesStatusCodes;
+import com.google.android.gms.games.leaderboard.LeaderboardScore;
+import com.google.android.gms.games.leaderboard.LeaderboardScoreBuffer;
+import com.google.android.gms.games.leaderboard.Leaderboards;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Cache in front of the leaderboard score loads.
+ *
+ * Loaded scores are frozen and kept in a size-bounded LRU, each entry valid for a time that
+ * depends on the kind of query. While a load is in flight, identical requests wait for it rather
+ * than issuing loads of their own. Submitting a score through {@link #submitScore} drops every
+ * cached entry for that leaderboard once the submission lands.
+ *
+ * Loads and submissions go through the helper's {@link GamesApiRateLimiter}, loads ahead of
+ * submissions.
+ *
+ * Use from the main thread; callbacks are delivered there as well.
+ */
+public class LeaderboardCache {
+    // Query kinds, part of the cache key.
+    static final int QUERY_TOP = 0;
+    static final int QUERY_PLAYER_CENTERED = 1;
+    // Default time cached scores stay valid.
+    static final long DEFAULT_TOP_SCORES_TTL_MS = 60 * 1000;
+    static final long DEFAULT_PLAYER_CENTERED_TTL_MS = 30 * 1000;
+    // Default bound on cached data, counted in scores.
+    static final int DEFAULT_MAX_SCORES = 500;
+
+    /** Receives loaded scores on the main thread. */
+    public interface ScoresCallback {
+        /**
+         * @param statusCode
+         *          a GamesStatusCodes status code
+         * @param scores
+         *          the frozen scores, empty on failure. Shared with the cache, do not modify.
+         */
+        void onScoresLoaded(int statusCode, List<LeaderboardScore> scores);
+    }
+
+    static final class Entry {
+        final List<LeaderboardScore> mScores;
+        final long mExpiresAt;
+
+        Entry(List<LeaderboardScore> scores, long expiresAt) {
+            mScores = scores;
+            mExpiresAt = expiresAt;
+        }
+    }
+
+    // Callers waiting on the same load.
+    static final class InFlight {
+        final ArrayList<ScoresCallback> mCallbacks = new ArrayList<ScoresCallback>();
+        // Invalidation generation of the leaderboard, and cache epoch, when the load started.
+        final int mGeneration;
+        final int mEpoch;
+
+        InFlight(int generation, int epoch) {
+            mGeneration = generation;
+            mEpoch = epoch;
+        }
+    }
+
+    private final GameHelper mHelper;
+    private final LruCache<String, Entry> mEntries;
+    private final HashMap<String, InFlight> mInFlight = new HashMap<String, InFlight>();
+    // Bumped for a leaderboard whenever its cached entries are dropped, so that loads started
+    // before the drop aren't cached.
+    private final HashMap<String, Integer> mGenerations = new HashMap<String, Integer>();
+    // Bumped when the whole cache is dropped, for the same reason.
+    private int mEpoch = 0;
+    private long mTopScoresTtlMs = DEFAULT_TOP_SCORES_TTL_MS;
+    private long mPlayerCenteredTtlMs = DEFAULT_PLAYER_CENTERED_TTL_MS;
+    // Hit/miss counters, for diagnostics.
+    private int mHits = 0;
+    private int mMisses = 0;
+    private int mCoalesced = 0;
+
+    public LeaderboardCache(GameHelper helper) {
+        this(helper, DEFAULT_MAX_SCORES);
+    }
+
+    /**
+     * @param helper
+     *          the GameHelper whose API client is used to load
+     * @param maxScores
+     *          upper bound on the number of scores held by the cache
+     */
+    public LeaderboardCache(GameHelper helper, int maxScores) {
+        mHelper = helper;
+        mEntries = new LruCache<String, Entry>(maxScores) {
+            @Override
+            protected int sizeOf(String key, Entry value) {
+                return value.mScores.size() + 1;
+            }
+        };
+    }
+
+    /** Sets how long top score pages stay valid. */
+    public void setTopScoresTtl(long millis) {
+        mTopScoresTtlMs = millis;
+    }
+
+    /** Sets how long player-centered score pages stay valid. */
+    public void setPlayerCenteredTtl(long millis) {
+        mPlayerCenteredTtlMs = millis;
+    }
+
+    /** Loads the top scores, from the cache if possible. See Leaderboards.loadTopScores(). */
+    public void loadTopScores(String leaderboardId, int span, int collection, int maxResults,
+                              ScoresCallback callback) {
+        load(QUERY_TOP, leaderboardId, span, collection, maxResults, callback);
+    }
+
+    /**
+     * Loads the scores around the player, from the cache if possible. See
+     * Leaderboards.loadPlayerCenteredScores().
+     */
+    public void loadPlayerCenteredScores(String leaderboardId, int span, int collection,
+                                         int maxResults, ScoresCallback callback) {
+        load(QUERY_PLAYER_CENTERED, leaderboardId, span, collection, maxResults, callback);
+    }
+
+    /**
+     * Submits a score, and drops the cached scores of the leaderboard once the submission has
+     * been accepted.
+     */
+    public void submitScore(final String leaderboardId, final long score) {
+        mHelper.getRateLimiter().submit(GamesApiRateLimiter.CATEGORY_LEADERBOARDS,
+                GamesApiRateLimiter.PRIORITY_BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                Games.Leaderboards.submitScoreImmediate(mHelper.getApiClient(), leaderboardId,
+                        score).setResultCallback(
+                        new ResultCallback<Leaderboards.SubmitScoreResult>() {
+                            @Override
+                            public void onResult(Leaderboards.SubmitScoreResult result) {
+                                if (result.getStatus().isSuccess()) {
+                                    invalidate(leaderboardId);
+                                }
+                            }
+                        });
+            }
+        });
+    }
+
+    /** Drops the cached scores of one leaderboard. */
+    public void invalidate(String leaderboardId) {
+        mGenerations.put(leaderboardId, generation(leaderboardId) + 1);
+        String prefix = leaderboardId + "|";
+        for (String key : mEntries.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mEntries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drops everything, e.g. when the player signs out. Callers waiting for loads get
+     * STATUS_CLIENT_RECONNECT_REQUIRED, as loads still queued in the rate limiter are dropped.
+     */
+    public void evictAll() {
+        mEpoch++;
+        mEntries.evictAll();
+        if (!mInFlight.isEmpty()) {
+            ArrayList<InFlight> flights = new ArrayList<InFlight>(mInFlight.values());
+            mInFlight.clear();
+            List<LeaderboardScore> none = Collections.emptyList();
+            for (InFlight flight : flights) {
+                for (ScoresCallback callback : flight.mCallbacks) {
+                    callback.onScoresLoaded(GamesStatusCodes.STATUS_CLIENT_RECONNECT_REQUIRED,
+                            none);
+                }
+            }
+        }
+    }
+
+    public int getHitCount() {
+        return mHits;
+    }
+
+    public int getMissCount() {
+        return mMisses;
+    }
+
+    public int getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    private int generation(String leaderboardId) {
+        Integer gen = mGenerations.get(leaderboardId);
+        return gen == null ? 0 : gen;
+    }
+
+    private void load(final int query, final String leaderboardId, final int span,
+                      final int collection, final int maxResults, ScoresCallback callback) {
+        final String key = leaderboardId + "|" + query + "|" + span + "|" + collection + "|"
+                + maxResults;
+
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            if (SystemClock.elapsedRealtime() < entry.mExpiresAt) {
+                mHits++;
+                callback.onScoresLoaded(GamesStatusCodes.STATUS_OK, entry.mScores);
+                return;
+            }
+            mEntries.remove(key);
+        }
+
+        InFlight flight = mInFlight.get(key);
+        if (flight != null) {
+            mCoalesced++;
+            flight.mCallbacks.add(callback);
+            return;
+        }
+
+        mMisses++;
+        flight = new InFlight(generation(leaderboardId), mEpoch);
+        flight.mCallbacks.add(callback);
+        mInFlight.put(key, flight);
+
+        final long ttl = query == QUERY_TOP ? mTopScoresTtlMs : mPlayerCenteredTtlMs;
+        final InFlight issued = flight;
+        mHelper.getRateLimiter().submit(GamesApiRateLimiter.CATEGORY_LEADERBOARDS,
+                GamesApiRateLimiter.PRIORITY_USER_VISIBLE, new Runnable() {
+            @Override
+            public void run() {
+                if (mInFlight.get(key) != issued) {
+                    // Dropped by evictAll() while queued.
+                    return;
+                }
+                PendingResult<Leaderboards.LoadScoresResult> pending = query == QUERY_TOP
+                        ? Games.Leaderboards.loadTopScores(mHelper.getApiClient(), leaderboardId,
+                                span, collection, maxResults)
+                        : Games.Leaderboards.loadPlayerCenteredScores(mHelper.getApiClient(),
+                                leaderboardId, span, collection, maxResults);
+                pending.setResultCallback(new ResultCallback<Leaderboards.LoadScoresResult>() {
+                    @Override
+                    public void onResult(Leaderboards.LoadScoresResult result) {
+                        onLoaded(key, leaderboardId, ttl, issued, result);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onLoaded(String key, String leaderboardId, long ttl, InFlight issued,
+                          Leaderboards.LoadScoresResult result) {
+        // Null if evictAll() dropped the flight, which may have been replaced since.
+        InFlight flight = mInFlight.get(key) == issued ? mInFlight.remove(key) : null;
+        int status = result.getStatus().getStatusCode();
+        List<LeaderboardScore> scores = Collections.emptyList();
+
+        LeaderboardScoreBuffer buffer = result.getScores();
+        try {
+            if (result.getStatus().isSuccess() && buffer != null) {
+                ArrayList<LeaderboardScore> frozen =
+                        new ArrayList<LeaderboardScore>(buffer.getCount());
+                for (int i = 0; i < buffer.getCount(); i++) {
+                    frozen.add(buffer.get(i).freeze());
+                }
+                scores = Collections.unmodifiableList(frozen);
+                if (flight != null && flight.mGeneration == generation(leaderboardId)
+                        && flight.mEpoch == mEpoch) {
+                    mEntries.put(key, new Entry(scores, SystemClock.elapsedRealtime() + ttl));
+                }
+            }
+        } finally {
+            // Releases the leaderboard along with the scores.
+            result.release();
+        }
+
+        if (flight != null) {
+            for (ScoresCallback callback : flight.mCallbacks) {
+                callback.onScoresLoaded(status, scores);
+            }
+        }
+    }
+}
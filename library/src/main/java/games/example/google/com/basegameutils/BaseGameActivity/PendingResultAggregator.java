@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.Releasable;
+import com.google.android.gms.common.api.Result;
+import com.google.android.gms.common.api.ResultCallback;
+
+import java.util.ArrayList;
+
+/**
+ * Waits for several loads at once and delivers their results together.
+ *
+ * Issue all the loads first, add their PendingResults, then {@link #start}: the loads run
+ * concurrently, and the callback gets every result once the last one is in, or whatever is in
+ * when the shared deadline passes. A partial callback can show each result as it arrives.
+ *
+ * The helper cancels running aggregations on onStop(): the loads still outstanding are
+ * cancelled, results that arrived are released and no callback is called.
+ *
+ * <pre>
+ * PendingResultAggregator agg = helper.newAggregator();
+ * final Key&lt;LoadPlayersResult&gt; me = agg.add("player", Games.Players.loadPlayer(...));
+ * final Key&lt;LoadAchievementsResult&gt; ach = agg.add("achievements",
+ *         Games.Achievements.load(...));
+ * agg.start(new Callback() {
+ *     public void onResults(Results results) {
+ *         LoadAchievementsResult a = results.get(ach); // null if it didn't make the deadline
+ *         ...
+ *         results.release();
+ *     }
+ * });
+ * </pre>
+ *
+ * Use from the main thread; callbacks are delivered there as well.
+ */
+public class PendingResultAggregator {
+    static final long DEFAULT_TIMEOUT_MS = 10 * 1000;
+
+    /** Identifies one load, and the type of its result. */
+    public static final class Key<R extends Result> {
+        final int mIndex;
+        final String mName;
+
+        Key(int index, String name) {
+            mIndex = index;
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+
+    /** Receives the results once all are in or the deadline passed. */
+    public interface Callback {
+        void onResults(Results results);
+    }
+
+    /** Receives each result as it arrives, before the final callback. */
+    public interface PartialCallback {
+        /**
+         * @param key
+         *          the load that completed
+         * @param results
+         *          everything that arrived so far; only valid during the call
+         */
+        void onResult(Key<?> key, Results results);
+    }
+
+    /** The results that arrived. Owns them until {@link #release()} is called. */
+    public static final class Results {
+        private final Result[] mResults;
+        private final int mArrived;
+        private final boolean mTimedOut;
+
+        Results(Result[] results, int arrived, boolean timedOut) {
+            mResults = results;
+            mArrived = arrived;
+            mTimedOut = timedOut;
+        }
+
+        /** Returns the result of a load, or null if it hasn't arrived. */
+        @SuppressWarnings("unchecked")
+        public <R extends Result> R get(Key<R> key) {
+            return (R) mResults[key.mIndex];
+        }
+
+        /** Returns whether every load's result arrived. */
+        public boolean isComplete() {
+            return mArrived == mResults.length;
+        }
+
+        /** Returns whether the deadline passed before every result arrived. */
+        public boolean isTimedOut() {
+            return mTimedOut;
+        }
+
+        public int getArrivedCount() {
+            return mArrived;
+        }
+
+        /** Releases the results that hold buffers. */
+        public void release() {
+            for (Result result : mResults) {
+                releaseResult(result);
+            }
+        }
+    }
+
+    private final GameHelper mHelper;
+    private final ArrayList<PendingResult<?>> mPending = new ArrayList<PendingResult<?>>();
+    private final ArrayList<Key<?>> mKeys = new ArrayList<Key<?>>();
+    private Result[] mResults = null;
+    private int mArrived = 0;
+    private long mTimeoutMs = DEFAULT_TIMEOUT_MS;
+    private Callback mCallback = null;
+    private PartialCallback mPartialCallback = null;
+    private boolean mStarted = false;
+    private boolean mFinished = false;
+    private final Runnable mTimeout = new Runnable() {
+        @Override
+        public void run() {
+            finish(true);
+        }
+    };
+
+    /** Use {@link GameHelper#newAggregator()}, so that onStop() cancels the aggregation. */
+    PendingResultAggregator(GameHelper helper) {
+        mHelper = helper;
+    }
+
+    /** Sets the deadline for all the results, counted from {@link #start}. */
+    public void setTimeout(long millis) {
+        mTimeoutMs = millis;
+    }
+
+    public void setPartialCallback(PartialCallback callback) {
+        mPartialCallback = callback;
+    }
+
+    /**
+     * Adds a load to wait for. Call before {@link #start}.
+     *
+     * @param name
+     *          a name for the load, for logs
+     * @return the key to get the result with
+     */
+    public <R extends Result> Key<R> add(String name, PendingResult<R> pending) {
+        if (mStarted) {
+            throw new IllegalStateException("PendingResultAggregator: add() after start()");
+        }
+        Key<R> key = new Key<R>(mPending.size(), name);
+        mPending.add(pending);
+        mKeys.add(key);
+        return key;
+    }
+
+    /** Starts waiting for the loads. The callback is called once. */
+    public void start(Callback callback) {
+        if (mStarted) {
+            throw new IllegalStateException("PendingResultAggregator: start() called twice");
+        }
+        mStarted = true;
+        mCallback = callback;
+        mResults = new Result[mPending.size()];
+        if (mPending.isEmpty()) {
+            finish(false);
+            return;
+        }
+        mHelper.mAggregators.add(this);
+        for (int i = 0; i < mPending.size(); i++) {
+            listen(mPending.get(i), i);
+        }
+        mHelper.mHandler.postDelayed(mTimeout, mTimeoutMs);
+    }
+
+    /** Cancels the outstanding loads and releases the arrived results, without calling back. */
+    public void cancel() {
+        if (mFinished) {
+            return;
+        }
+        mFinished = true;
+        mHelper.mHandler.removeCallbacks(mTimeout);
+        mHelper.mAggregators.remove(this);
+        cancelOutstanding();
+        if (mResults != null) {
+            for (Result result : mResults) {
+                releaseResult(result);
+            }
+        }
+    }
+
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    private <R extends Result> void listen(PendingResult<R> pending, final int index) {
+        pending.setResultCallback(new ResultCallback<R>() {
+            @Override
+            public void onResult(R result) {
+                onArrived(index, result);
+            }
+        });
+    }
+
+    void onArrived(int index, Result result) {
+        if (mFinished || mResults[index] != null) {
+            // Too late; nobody will release it.
+            releaseResult(result);
+            return;
+        }
+        mResults[index] = result;
+        mArrived++;
+        if (mPartialCallback != null) {
+            mPartialCallback.onResult(mKeys.get(index), new Results(mResults, mArrived, false));
+        }
+        if (mArrived == mResults.length && !mFinished) {
+            finish(false);
+        }
+    }
+
+    private void finish(boolean timedOut) {
+        if (mFinished) {
+            return;
+        }
+        mFinished = true;
+        mHelper.mHandler.removeCallbacks(mTimeout);
+        mHelper.mAggregators.remove(this);
+        if (timedOut) {
+            cancelOutstanding();
+        }
+        mCallback.onResults(new Results(mResults, mArrived, timedOut));
+    }
+
+    private void cancelOutstanding() {
+        for (int i = 0; i < mPending.size(); i++) {
+            if (mResults == null || mResults[i] == null) {
+                mPending.get(i).cancel();
+            }
+        }
+    }
+
+    static void releaseResult(Result result) {
+        if (result instanceof Releasable) {
+            ((Releasable) result).release();
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.google.android.gms.common.images.ImageManager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Two-tier cache for player and leaderboard images.
+ *
+ * Images are looked up in a memory LRU bounded in bytes, then in a disk tier in the app's cache
+ * directory, and only then fetched through the Play services ImageManager. Disk reads are decoded
+ * on a background thread, into a bitmap evicted from the memory tier when one of matching size
+ * is available. Requests for an image that is already being fetched wait for that fetch.
+ *
+ * Every bitmap handed out is counted as in use until {@link #release} is called for it, e.g.
+ * when its view is rebound to another image. Only evicted bitmaps no one uses anymore are
+ * decoded into, so a bitmap that is never released is never reused.
+ *
+ * The cache belongs to the signed-in player; the helper evicts it on signOut(). Use from the
+ * main thread; callbacks are delivered there as well.
+ */
+public class PlayerImageCache {
+    // Directory, under the app's cache dir, holding the disk tier.
+    static final String DISK_CACHE_DIR = "gamehelper_images";
+    // Default share of the heap the memory tier may use.
+    static final int DEFAULT_MEMORY_FRACTION = 8;
+    // Evicted bitmaps we hold on to for reuse.
+    static final int MAX_REUSABLE_BITMAPS = 8;
+
+    /** Receives a loaded image on the main thread. */
+    public interface ImageCallback {
+        /**
+         * @param uri
+         *          the requested image
+         * @param bitmap
+         *          the image, or null if it could not be loaded
+         */
+        void onImageLoaded(Uri uri, Bitmap bitmap);
+    }
+
+    private final Context mAppContext;
+    private final File mDiskDir;
+    private final LruCache<String, Bitmap> mMemory;
+    // Bitmaps evicted from memory and no longer in use, candidates for decoding into. Taken on
+    // the background thread, so guarded by itself.
+    private final ArrayList<Bitmap> mReusable = new ArrayList<Bitmap>();
+    // How many times each bitmap we handed out is in use. Main thread only.
+    private final IdentityHashMap<Bitmap, Integer> mInUse = new IdentityHashMap<Bitmap, Integer>();
+    // Bitmaps evicted from memory while in use, to reuse once released. Main thread only.
+    private final IdentityHashMap<Bitmap, Boolean> mEvictedInUse =
+            new IdentityHashMap<Bitmap, Boolean>();
+    // Callbacks waiting on a load, by uri. Main thread only.
+    private final HashMap<String, ArrayList<ImageCallback>> mPending =
+            new HashMap<String, ArrayList<ImageCallback>>();
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private ImageManager mImageManager = null;
+    // Bumped on evictAll(), so that loads started before it aren't cached.
+    private int mEpoch = 0;
+
+    public PlayerImageCache(Context context) {
+        this(context, (int) (Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_FRACTION));
+    }
+
+    /**
+     * @param context
+     *          any context, only the application context is kept
+     * @param maxMemoryBytes
+     *          upper bound on the bytes held by the memory tier
+     */
+    public PlayerImageCache(Context context, int maxMemoryBytes) {
+        mAppContext = context.getApplicationContext();
+        mDiskDir = new File(mAppContext.getCacheDir(), DISK_CACHE_DIR);
+        mMemory = new LruCache<String, Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                                        Bitmap newValue) {
+                if (!evicted || !oldValue.isMutable()) {
+                    return;
+                }
+                if (mInUse.containsKey(oldValue)) {
+                    mEvictedInUse.put(oldValue, Boolean.TRUE);
+                } else {
+                    offerReusable(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the image if it is in the memory tier, else null. Never blocks. A returned bitmap
+     * is in use until released.
+     */
+    public Bitmap getIfCached(Uri uri) {
+        return uri == null ? null : acquire(mMemory.get(uri.toString()));
+    }
+
+    /**
+     * Tells the cache a bitmap it handed out is no longer shown, so that it may be decoded into
+     * once evicted. Call once per bitmap received.
+     */
+    public void release(Bitmap bitmap) {
+        Integer count = bitmap == null ? null : mInUse.get(bitmap);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            mInUse.put(bitmap, count - 1);
+            return;
+        }
+        mInUse.remove(bitmap);
+        if (mEvictedInUse.remove(bitmap) != null) {
+            offerReusable(bitmap);
+        }
+    }
+
+    private Bitmap acquire(Bitmap bitmap) {
+        if (bitmap != null) {
+            Integer count = mInUse.get(bitmap);
+            mInUse.put(bitmap, count == null ? 1 : count + 1);
+        }
+        return bitmap;
+    }
+
+    private void offerReusable(Bitmap bitmap) {
+        synchronized (mReusable) {
+            if (mReusable.size() < MAX_REUSABLE_BITMAPS) {
+                mReusable.add(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Loads an image. The callback is called right away if the image is in memory, otherwise
+     * once it has been read from disk or fetched. A bitmap passed to the callback is in use
+     * until released.
+     */
+    public void load(final Uri uri, ImageCallback callback) {
+        if (uri == null) {
+            callback.onImageLoaded(null, null);
+            return;
+        }
+        final String key = uri.toString();
+        Bitmap cached = mMemory.get(key);
+        if (cached != null) {
+            callback.onImageLoaded(uri, acquire(cached));
+            return;
+        }
+
+        ArrayList<ImageCallback> waiting = mPending.get(key);
+        if (waiting != null) {
+            waiting.add(callback);
+            return;
+        }
+        waiting = new ArrayList<ImageCallback>();
+        waiting.add(callback);
+        mPending.put(key, waiting);
+
+        final File file = diskFile(key);
+        final int epoch = mEpoch;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = null;
+                if (file.exists()) {
+                    Bitmap reuse = takeReusable(file);
+                    bitmap = decode(file, reuse);
+                    if (bitmap == null && reuse != null) {
+                        offerReusable(reuse);
+                    }
+                }
+                final Bitmap decoded = bitmap;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (decoded != null) {
+                            finish(uri, decoded, epoch);
+                        } else {
+                            fetch(uri, epoch);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /** Drops the memory and disk tiers, e.g. when the player signs out. */
+    public void evictAll() {
+        mEpoch++;
+        mMemory.evictAll();
+        mEvictedInUse.clear();
+        synchronized (mReusable) {
+            mReusable.clear();
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = mDiskDir.listFiles();
+                if (files != null) {
+                    for (File f : files) {
+                        if (!f.delete()) {
+                            Log.w(GameHelper.TAG, "PlayerImageCache: could not delete " + f);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private void fetch(final Uri uri, final int epoch) {
+        if (mImageManager == null) {
+            mImageManager = ImageManager.create(mAppContext);
+        }
+        mImageManager.loadImage(new ImageManager.OnImageLoadedListener() {
+            @Override
+            public void onImageLoaded(Uri loadedUri, Drawable drawable, boolean isRequested) {
+                Bitmap bitmap = null;
+                if (isRequested && drawable instanceof BitmapDrawable) {
+                    bitmap = ((BitmapDrawable) drawable).getBitmap();
+                }
+                if (bitmap != null && epoch == mEpoch) {
+                    store(uri.toString(), bitmap);
+                }
+                finish(uri, bitmap, epoch);
+            }
+        }, uri);
+    }
+
+    private void finish(Uri uri, Bitmap bitmap, int epoch) {
+        String key = uri.toString();
+        if (bitmap != null && epoch == mEpoch) {
+            mMemory.put(key, bitmap);
+        }
+        ArrayList<ImageCallback> waiting = mPending.remove(key);
+        if (waiting != null) {
+            for (ImageCallback callback : waiting) {
+                callback.onImageLoaded(uri, acquire(bitmap));
+            }
+        }
+    }
+
+    // Writes a fetched image to the disk tier in the background.
+    private void store(final String key, final Bitmap bitmap) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mDiskDir.exists() && !mDiskDir.mkdirs()) {
+                    return;
+                }
+                FileOutputStream out = null;
+                try {
+                    out = new FileOutputStream(diskFile(key));
+                    bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+                } catch (IOException ex) {
+                    Log.w(GameHelper.TAG, "PlayerImageCache: could not write " + key + ": " + ex);
+                } finally {
+                    if (out != null) {
+                        try {
+                            out.close();
+                        } catch (IOException ex) {
+                            // Nothing more we can do.
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    // Named after the SHA-1 of the key, so that different images never share a file.
+    File diskFile(String key) {
+        return new File(mDiskDir, sha1Hex(key) + ".png");
+    }
+
+    static String sha1Hex(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            // Every platform has SHA-1.
+            throw new IllegalStateException(ex);
+        } catch (IOException ex) {
+            // Every platform has UTF-8.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Picks an evicted bitmap that the image in file can be decoded into, or null. Bitmap reuse
+     * needs API 11, and until API 19 an exact size match. Called on the background thread.
+     */
+    private Bitmap takeReusable(File file) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return null;
+        }
+        synchronized (mReusable) {
+            if (mReusable.isEmpty()) {
+                return null;
+            }
+        }
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), bounds);
+        synchronized (mReusable) {
+            for (Iterator<Bitmap> it = mReusable.iterator(); it.hasNext(); ) {
+                Bitmap candidate = it.next();
+                if (candidate.getWidth() == bounds.outWidth
+                        && candidate.getHeight() == bounds.outHeight) {
+                    it.remove();
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static Bitmap decode(File file, Bitmap reuse) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            options.inMutable = true;
+            options.inBitmap = reuse;
+        }
+        try {
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException ex) {
+            // The reused bitmap didn't fit after all; decode into a new one.
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.plus.Plus;
+
+/** Connects the helper to the Plus API, for CLIENT_PLUS. */
+class PlusComponent implements GameHelperComponent {
+
+    @Override
+    public void addApi(GoogleApiClient.Builder builder, GameHelper helper) {
+        if (helper != null && helper.mPlusApiOptions != null) {
+            builder.addApi(Plus.API, helper.mPlusApiOptions);
+        } else {
+            builder.addApi(Plus.API);
+        }
+        builder.addScope(Plus.SCOPE_PLUS_LOGIN);
+    }
+
+    /** For Plus, "signing out" means clearing the default account. */
+    @Override
+    public void onSignOut(GoogleApiClient client) {
+        Plus.AccountApi.clearDefaultAccount(client);
+    }
+}
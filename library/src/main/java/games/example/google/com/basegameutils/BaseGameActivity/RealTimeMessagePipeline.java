@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.multiplayer.Multiplayer;
+import com.google.android.gms.games.multiplayer.realtime.RealTimeMessage;
+import com.google.android.gms.games.multiplayer.realtime.RealTimeMessageReceivedListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Frame-batched messaging for a real-time multiplayer room.
+ *
+ * Instead of sending one unreliable message per game update, the game queues its updates for
+ * a tick with {@link #queue} and calls {@link #flush} once at the end of the tick. All messages
+ * for the same recipient are then coalesced into a single packet. Packets are built in
+ * per-recipient buffers and sent from arrays recycled through a {@link ByteArrayPool}, so a
+ * steady game loop does not allocate.
+ *
+ * Each message inside a packet is laid out as [type: 1 byte][length: 2 bytes][payload]. Incoming
+ * packets are decoded into a single reused {@link IncomingMessage} that points straight into the
+ * received data.
+ *
+ * Outgoing calls are meant to be made from the game loop thread only. Register the pipeline as
+ * the room's {@link RealTimeMessageReceivedListener} to get incoming messages decoded.
+ */
+public class RealTimeMessagePipeline implements RealTimeMessageReceivedListener {
+    // Size of the header preceding each message in a packet.
+    static final int MESSAGE_HEADER_SIZE = 3;
+    // Largest packet we may send as an unreliable message.
+    static final int MAX_PACKET_SIZE = Multiplayer.MAX_UNRELIABLE_MESSAGE_LEN;
+    // Largest payload a single message can have.
+    public static final int MAX_PAYLOAD_SIZE = MAX_PACKET_SIZE - MESSAGE_HEADER_SIZE;
+
+    /**
+     * Receives decoded messages. Called on the thread that delivers room messages.
+     */
+    public interface MessageHandler {
+        /**
+         * Called once per message in a received packet. The message object, and the array it
+         * points into, is only valid for the duration of the call.
+         */
+        void onMessage(IncomingMessage message);
+    }
+
+    /**
+     * A decoded message. The same instance is reused for every message, so copy what you need to
+     * keep.
+     */
+    public static final class IncomingMessage {
+        String mSenderId;
+        int mType;
+        byte[] mData;
+        int mOffset;
+        int mLength;
+
+        public String getSenderId() {
+            return mSenderId;
+        }
+
+        public int getType() {
+            return mType;
+        }
+
+        /** The array holding the payload. Read from {@link #getOffset()}. */
+        public byte[] getData() {
+            return mData;
+        }
+
+        public int getOffset() {
+            return mOffset;
+        }
+
+        public int getLength() {
+            return mLength;
+        }
+    }
+
+    // Messages queued for one recipient during the current tick.
+    static final class Outbox {
+        final String mRecipientId;
+        final byte[] mBuffer = new byte[MAX_PACKET_SIZE];
+        int mLength = 0;
+
+        Outbox(String recipientId) {
+            mRecipientId = recipientId;
+        }
+    }
+
+    private final GameHelper mHelper;
+    private final String mRoomId;
+    private final MessageHandler mHandler;
+    private final ByteArrayPool mPool = new ByteArrayPool();
+    // Outboxes by recipient, plus a list of them so flush() can iterate without allocating.
+    private final HashMap<String, Outbox> mOutboxes = new HashMap<String, Outbox>();
+    private final ArrayList<Outbox> mOutboxList = new ArrayList<Outbox>();
+    // Reused for every incoming message.
+    private final IncomingMessage mIncoming = new IncomingMessage();
+    // Recipients for queueToAll().
+    private final ArrayList<String> mParticipantIds = new ArrayList<String>();
+    // Number of packets and messages sent, for diagnostics.
+    private int mPacketsSent = 0;
+    private int mMessagesSent = 0;
+
+    /**
+     * @param helper
+     *          the GameHelper whose API client is used to send
+     * @param roomId
+     *          the ID of the room to send messages to
+     * @param handler
+     *          receives decoded incoming messages, may be null if only sending
+     */
+    public RealTimeMessagePipeline(GameHelper helper, String roomId, MessageHandler handler) {
+        mHelper = helper;
+        mRoomId = roomId;
+        mHandler = handler;
+    }
+
+    /**
+     * Sets the participants that {@link #queueToAll} sends to, normally everyone in the room
+     * except ourselves.
+     */
+    public void setParticipants(List<String> participantIds) {
+        mParticipantIds.clear();
+        mParticipantIds.addAll(participantIds);
+    }
+
+    /**
+     * Queues a message for a recipient. It will be sent on the next {@link #flush()}, or earlier
+     * if the recipient's packet is full.
+     *
+     * @param recipientId
+     *          participant ID of the recipient
+     * @param type
+     *          application defined message type, 0-255
+     * @param payload
+     *          array holding the payload
+     * @param offset
+     *          start of the payload in the array
+     * @param length
+     *          payload length, at most {@link #MAX_PAYLOAD_SIZE}
+     */
+    public void queue(String recipientId, int type, byte[] payload, int offset, int length) {
+        if (type < 0 || type > 0xFF) {
+            throw new IllegalArgumentException("Message type out of range: " + type);
+        }
+        if (offset < 0 || length < 0 || offset > payload.length - length) {
+            // Checked here, as arraycopy would only fail after the header was written.
+            throw new IllegalArgumentException("Message payload out of bounds: offset " + offset
+                    + ", length " + length + ", array length " + payload.length);
+        }
+        if (length > MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Message payload too large: " + length
+                    + " bytes, max is " + MAX_PAYLOAD_SIZE);
+        }
+
+        Outbox outbox = mOutboxes.get(recipientId);
+        if (outbox == null) {
+            outbox = new Outbox(recipientId);
+            mOutboxes.put(recipientId, outbox);
+            mOutboxList.add(outbox);
+        }
+
+        if (outbox.mLength + MESSAGE_HEADER_SIZE + length > MAX_PACKET_SIZE) {
+            // Packet full, send what we have so far.
+            send(outbox);
+        }
+
+        byte[] buf = outbox.mBuffer;
+        int pos = outbox.mLength;
+        buf[pos] = (byte) type;
+        buf[pos + 1] = (byte) (length >> 8);
+        buf[pos + 2] = (byte) length;
+        System.arraycopy(payload, offset, buf, pos + MESSAGE_HEADER_SIZE, length);
+        outbox.mLength = pos + MESSAGE_HEADER_SIZE + length;
+    }
+
+    /** Queues a message for every participant set with {@link #setParticipants}. */
+    public void queueToAll(int type, byte[] payload, int offset, int length) {
+        for (int i = 0; i < mParticipantIds.size(); i++) {
+            queue(mParticipantIds.get(i), type, payload, offset, length);
+        }
+    }
+
+    /** Sends everything queued during this tick. Call once at the end of each game loop tick. */
+    public void flush() {
+        for (int i = 0; i < mOutboxList.size(); i++) {
+            Outbox outbox = mOutboxList.get(i);
+            if (outbox.mLength > 0) {
+                send(outbox);
+            }
+        }
+    }
+
+    /** Drops anything queued and the recycled buffers, e.g. when leaving the room. */
+    public void reset() {
+        for (int i = 0; i < mOutboxList.size(); i++) {
+            mOutboxList.get(i).mLength = 0;
+        }
+        mPool.clear();
+    }
+
+    public int getPacketsSent() {
+        return mPacketsSent;
+    }
+
+    public int getMessagesSent() {
+        return mMessagesSent;
+    }
+
+    private void send(Outbox outbox) {
+        GoogleApiClient client = mHelper.getApiClient();
+        if (!client.isConnected()) {
+            Log.w(GameHelper.TAG, "RealTimeMessagePipeline: not connected, dropping "
+                    + outbox.mLength + " bytes for " + outbox.mRecipientId);
+            outbox.mLength = 0;
+            return;
+        }
+
+        byte[] packet = mPool.acquire(outbox.mLength);
+        System.arraycopy(outbox.mBuffer, 0, packet, 0, outbox.mLength);
+        mMessagesSent += countMessages(packet, packet.length);
+        Games.RealTimeMultiplayer.sendUnreliableMessage(client, packet, mRoomId,
+                outbox.mRecipientId);
+        // The data is copied when the call is marshalled, so the array can be recycled.
+        mPool.release(packet);
+        mPacketsSent++;
+        outbox.mLength = 0;
+    }
+
+    private static int countMessages(byte[] packet, int length) {
+        int count = 0;
+        int pos = 0;
+        while (pos + MESSAGE_HEADER_SIZE <= length) {
+            pos += MESSAGE_HEADER_SIZE
+                    + (((packet[pos + 1] & 0xFF) << 8) | (packet[pos + 2] & 0xFF));
+            count++;
+        }
+        return count;
+    }
+
+    /** Decodes an incoming packet and hands each message in it to the handler. */
+    @Override
+    public void onRealTimeMessageReceived(RealTimeMessage message) {
+        if (mHandler == null) {
+            return;
+        }
+        byte[] data = message.getMessageData();
+        IncomingMessage msg = mIncoming;
+        msg.mSenderId = message.getSenderParticipantId();
+        msg.mData = data;
+
+        int pos = 0;
+        while (pos + MESSAGE_HEADER_SIZE <= data.length) {
+            int type = data[pos] & 0xFF;
+            int length = ((data[pos + 1] & 0xFF) << 8) | (data[pos + 2] & 0xFF);
+            int start = pos + MESSAGE_HEADER_SIZE;
+            if (start + length > data.length) {
+                Log.w(GameHelper.TAG, "RealTimeMessagePipeline: truncated packet from "
+                        + msg.mSenderId + ", dropping the rest of it.");
+                break;
+            }
+            msg.mType = type;
+            msg.mOffset = start;
+            msg.mLength = length;
+            mHandler.onMessage(msg);
+            pos = start + length;
+        }
+
+        msg.mData = null;
+        msg.mSenderId = null;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+/**
+ * Decides how the helper resumes after the connection to Play services is suspended.
+ *
+ * Instead of reporting a sign-in failure right away, the helper reconnects with jittered
+ * exponential backoff and keeps the suspension from its listeners for up to a grace window. If
+ * the connection suspends too often within a short time, a circuit breaker opens and the helper
+ * goes back to reporting suspensions as failures until the breaker has cooled down.
+ *
+ * Used on the helper's thread only.
+ */
+public class ReconnectPolicy {
+    static final long DEFAULT_BASE_DELAY_MS = 250;
+    static final long DEFAULT_MAX_DELAY_MS = 4000;
+    static final double DEFAULT_JITTER = 0.5;
+    static final long DEFAULT_GRACE_WINDOW_MS = 10 * 1000;
+    static final int DEFAULT_BREAKER_THRESHOLD = 3;
+    static final long DEFAULT_BREAKER_WINDOW_MS = 60 * 1000;
+    static final long DEFAULT_BREAKER_COOLDOWN_MS = 5 * 60 * 1000;
+
+    private final Backoff mBackoff;
+    private final long mGraceWindowMs;
+    private final long mBreakerWindowMs;
+    private final long mBreakerCooldownMs;
+    // Times of the most recent suspensions, oldest overwritten first.
+    private final long[] mSuspensions;
+    private int mNextSuspension = 0;
+    // Reconnect attempts made since the last suspension.
+    private int mAttempt = 0;
+    // While the breaker is open, the time it closes again.
+    private long mBreakerOpenUntil = 0;
+
+    public ReconnectPolicy() {
+        this(new Backoff(DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_JITTER),
+                DEFAULT_GRACE_WINDOW_MS, DEFAULT_BREAKER_THRESHOLD, DEFAULT_BREAKER_WINDOW_MS,
+                DEFAULT_BREAKER_COOLDOWN_MS);
+    }
+
+    /**
+     * @param backoff
+     *          delays between reconnect attempts
+     * @param graceWindowMs
+     *          how long a suspension is hidden from listeners while reconnecting
+     * @param breakerThreshold
+     *          number of suspensions within breakerWindowMs that opens the breaker
+     * @param breakerWindowMs
+     *          the time window suspensions are counted in
+     * @param breakerCooldownMs
+     *          how long the breaker stays open
+     */
+    public ReconnectPolicy(Backoff backoff, long graceWindowMs, int breakerThreshold,
+                           long breakerWindowMs, long breakerCooldownMs) {
+        if (breakerThreshold < 1) {
+            throw new IllegalArgumentException("Breaker threshold must be at least 1.");
+        }
+        mBackoff = backoff;
+        mGraceWindowMs = graceWindowMs;
+        mSuspensions = new long[breakerThreshold];
+        mBreakerWindowMs = breakerWindowMs;
+        mBreakerCooldownMs = breakerCooldownMs;
+    }
+
+    public long getGraceWindow() {
+        return mGraceWindowMs;
+    }
+
+    /**
+     * Records a suspension.
+     *
+     * @param now
+     *          the current time, in SystemClock.elapsedRealtime() terms
+     * @return true to try to resume, false if the breaker is open and the suspension should be
+     *          reported right away
+     */
+    boolean onSuspended(long now) {
+        mAttempt = 0;
+        if (now < mBreakerOpenUntil) {
+            return false;
+        }
+        mSuspensions[mNextSuspension] = now;
+        mNextSuspension = (mNextSuspension + 1) % mSuspensions.length;
+        // The next slot holds the oldest of the last breakerThreshold suspensions.
+        long oldest = mSuspensions[mNextSuspension];
+        if (oldest != 0 && now - oldest < mBreakerWindowMs) {
+            mBreakerOpenUntil = now + mBreakerCooldownMs;
+            return false;
+        }
+        return true;
+    }
+
+    /** Returns the delay before the next reconnect attempt. */
+    long nextDelay() {
+        return mBackoff.delayFor(mAttempt++);
+    }
+
+    /** Returns how many reconnect attempts have been made since the last suspension. */
+    int getAttempts() {
+        return mAttempt;
+    }
+
+    public boolean isBreakerOpen(long now) {
+        return now < mBreakerOpenUntil;
+    }
+}
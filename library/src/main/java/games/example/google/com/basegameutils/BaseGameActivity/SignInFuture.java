@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The outcome of an asynchronous sign-in, see {@link GameHelper#beginUserInitiatedSignInAsync}
+ * and {@link GameHelper#connectAsync}.
+ *
+ * The future completes with true when signed in and false when sign-in failed, in which case
+ * {@link #getFailureReason()} tells why, if there was an error. Callbacks can be attached from
+ * any thread and run on the executor given with them. Cancelling, or timing out, only completes
+ * this future; the sign-in flow itself carries on for the helper's other listeners.
+ */
+public class SignInFuture implements Future<Boolean> {
+
+    /** Called when the future completes. */
+    public interface Callback {
+        /**
+         * @param future
+         *          the completed future; get() will not block
+         */
+        void onComplete(SignInFuture future);
+    }
+
+    // Runs callbacks on the thread that completes the future.
+    static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    static final int STATE_PENDING = 0;
+    static final int STATE_SIGNED_IN = 1;
+    static final int STATE_FAILED = 2;
+    static final int STATE_CANCELLED = 3;
+    static final int STATE_TIMED_OUT = 4;
+
+    private static final Handler sTimeoutHandler = new Handler(Looper.getMainLooper());
+
+    // Guarded by this.
+    private int mState = STATE_PENDING;
+    private GameHelper.SignInFailureReason mFailureReason = null;
+    private final ArrayList<Runnable> mCallbacks = new ArrayList<Runnable>();
+    private Runnable mTimeout = null;
+
+    SignInFuture() {
+    }
+
+    /**
+     * Runs the callback once the future completes, right away if it already has.
+     *
+     * @param callback
+     *          the callback
+     * @param executor
+     *          where to run it, or null to run it on the completing thread
+     * @return this future, for chaining
+     */
+    public SignInFuture addCallback(final Callback callback, Executor executor) {
+        final Executor target = executor == null ? DIRECT : executor;
+        Runnable dispatch = new Runnable() {
+            @Override
+            public void run() {
+                target.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onComplete(SignInFuture.this);
+                    }
+                });
+            }
+        };
+        synchronized (this) {
+            if (mState == STATE_PENDING) {
+                mCallbacks.add(dispatch);
+                return this;
+            }
+        }
+        dispatch.run();
+        return this;
+    }
+
+    /**
+     * Completes the future as timed out unless it completes within the given time.
+     *
+     * @return this future, for chaining
+     */
+    public SignInFuture setTimeout(long millis) {
+        Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                complete(STATE_TIMED_OUT, null);
+            }
+        };
+        synchronized (this) {
+            if (mState != STATE_PENDING) {
+                return this;
+            }
+            if (mTimeout != null) {
+                sTimeoutHandler.removeCallbacks(mTimeout);
+            }
+            mTimeout = timeout;
+        }
+        sTimeoutHandler.postDelayed(timeout, millis);
+        return this;
+    }
+
+    /** Returns whether sign-in succeeded. Only meaningful once done. */
+    public synchronized boolean isSignedIn() {
+        return mState == STATE_SIGNED_IN;
+    }
+
+    public synchronized boolean isTimedOut() {
+        return mState == STATE_TIMED_OUT;
+    }
+
+    /** Returns the error sign-in failed with, or null if it didn't fail with an error. */
+    public synchronized GameHelper.SignInFailureReason getFailureReason() {
+        return mFailureReason;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return complete(STATE_CANCELLED, null);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mState == STATE_CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mState != STATE_PENDING;
+    }
+
+    @Override
+    public synchronized Boolean get() throws InterruptedException {
+        while (mState == STATE_PENDING) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized Boolean get(long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (mState == STATE_PENDING) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException("Sign-in not completed in time");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    // Called with the lock held and the future done.
+    private Boolean result() {
+        if (mState == STATE_CANCELLED) {
+            throw new CancellationException("Sign-in future was cancelled");
+        }
+        return mState == STATE_SIGNED_IN;
+    }
+
+    /** Completes the future with the outcome of sign-in. Called by the helper. */
+    void complete(boolean signedIn, GameHelper.SignInFailureReason reason) {
+        complete(signedIn ? STATE_SIGNED_IN : STATE_FAILED, reason);
+    }
+
+    private boolean complete(int state, GameHelper.SignInFailureReason reason) {
+        ArrayList<Runnable> callbacks;
+        synchronized (this) {
+            if (mState != STATE_PENDING) {
+                return false;
+            }
+            mState = state;
+            mFailureReason = reason;
+            if (mTimeout != null) {
+                sTimeoutHandler.removeCallbacks(mTimeout);
+                mTimeout = null;
+            }
+            callbacks = new ArrayList<Runnable>(mCallbacks);
+            mCallbacks.clear();
+            notifyAll();
+        }
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+/**
+ * Immutable snapshot of a helper's sign-in state.
+ *
+ * The helper publishes a new snapshot on every transition, see
+ * {@link GameHelper#getSignInState()}. Reading it is a single volatile load, so it is cheap
+ * enough to do from the render thread every frame. Compare {@link #getVersion()} with the
+ * previous snapshot to see whether anything changed.
+ */
+public final class SignInState {
+    public static final int DISCONNECTED = 0;
+    public static final int CONNECTING = 1;
+    public static final int CONNECTED = 2;
+
+    /** The state before the helper has done anything. */
+    static final SignInState INITIAL = new SignInState(0, DISCONNECTED, null, false, false, 0);
+
+    private final long mVersion;
+    private final int mConnectionState;
+    private final String mPlayerId;
+    private final boolean mHasInvitation;
+    private final boolean mHasTurnBasedMatch;
+    private final int mRequestCount;
+
+    SignInState(long version, int connectionState, String playerId, boolean hasInvitation,
+                boolean hasTurnBasedMatch, int requestCount) {
+        mVersion = version;
+        mConnectionState = connectionState;
+        mPlayerId = playerId;
+        mHasInvitation = hasInvitation;
+        mHasTurnBasedMatch = hasTurnBasedMatch;
+        mRequestCount = requestCount;
+    }
+
+    /** Increases with every snapshot the helper publishes. */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /** One of {@link #DISCONNECTED}, {@link #CONNECTING} or {@link #CONNECTED}. */
+    public int getConnectionState() {
+        return mConnectionState;
+    }
+
+    public boolean isSignedIn() {
+        return mConnectionState == CONNECTED;
+    }
+
+    public boolean isConnecting() {
+        return mConnectionState == CONNECTING;
+    }
+
+    /** The signed-in player's ID, or null when not signed in to the Games API. */
+    public String getPlayerId() {
+        return mPlayerId;
+    }
+
+    public boolean hasInvitation() {
+        return mHasInvitation;
+    }
+
+    public boolean hasTurnBasedMatch() {
+        return mHasTurnBasedMatch;
+    }
+
+    /** The number of pending game requests received on connection. */
+    public int getRequestCount() {
+        return mRequestCount;
+    }
+
+    @Override
+    public String toString() {
+        return "SignInState(version:" + mVersion
+                + ",state:" + (mConnectionState == CONNECTED ? "CONNECTED"
+                : mConnectionState == CONNECTING ? "CONNECTING" : "DISCONNECTED")
+                + ",player:" + mPlayerId
+                + ",invitation:" + mHasInvitation
+                + ",match:" + mHasTurnBasedMatch
+                + ",requests:" + mRequestCount + ")";
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Records the helper's sign-in transitions, failure codes and timings on the device, for when
+ * a player reports a sign-in problem long after logcat has forgotten it.
+ *
+ * Records are a few bytes each and are written to a memory-mapped file, so recording is a
+ * memory write with no system call, and what was recorded survives the process crashing. When
+ * the file is full it becomes the previous file, replacing the one before it, and a new file is
+ * started; the two files together cap the disk use at twice {@link #DEFAULT_FILE_SIZE}.
+ * Decode the files, previous first, with {@link SignInTelemetryDecoder}.
+ *
+ * Opening, rotating and deleting the files happens on a background thread; the few records
+ * made meanwhile are held in memory and written once the file is mapped.
+ *
+ * Used on the helper's thread only.
+ */
+public class SignInTelemetry {
+    static final String DIR_NAME = "gamehelper_telemetry";
+    static final int DEFAULT_FILE_SIZE = 16 * 1024;
+    // Records held while a file is being opened; more are dropped.
+    static final int MAX_PENDING_RECORDS = 64;
+
+    // Does the file work of all instances, one operation at a time.
+    private static final ExecutorService sFileExecutor = Executors.newSingleThreadExecutor();
+
+    // A record waiting for the file to be mapped.
+    static final class PendingRecord {
+        final byte mType;
+        final int mCode;
+        final int mValue;
+        final long mTime;
+
+        PendingRecord(byte type, int code, int value, long time) {
+            mType = type;
+            mCode = code;
+            mValue = value;
+            mTime = time;
+        }
+    }
+
+    // A mapped file and the wall clock time it was created.
+    static final class MappedFile {
+        final MappedByteBuffer mBuffer;
+        final long mCreated;
+
+        MappedFile(MappedByteBuffer buffer, long created) {
+            mBuffer = buffer;
+            mCreated = created;
+        }
+    }
+
+    private final File mCurrentFile;
+    private final File mPreviousFile;
+    private final int mFileSize;
+    private final Handler mHandler = new Handler();
+    private MappedByteBuffer mBuffer = null;
+    // Wall clock time the current file was created.
+    private long mCreated = 0;
+    private boolean mOpening = false;
+    // Set when a file couldn't be opened; recording stops.
+    private boolean mBroken = false;
+    private final ArrayList<PendingRecord> mPending = new ArrayList<PendingRecord>();
+    // Bumped by clear(), so that a file opened before isn't used.
+    private int mGeneration = 0;
+
+    public SignInTelemetry(Context context) {
+        this(new File(context.getFilesDir(), DIR_NAME), DEFAULT_FILE_SIZE);
+    }
+
+    SignInTelemetry(File dir, int fileSize) {
+        mCurrentFile = new File(dir, "telemetry.0");
+        mPreviousFile = new File(dir, "telemetry.1");
+        mFileSize = fileSize;
+        open(false);
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param type
+     *          one of the SignInTelemetryDecoder.TYPE_* constants
+     * @param code
+     *          an error code or cause, as documented with the type
+     * @param value
+     *          a result code, count or duration, as documented with the type
+     */
+    public void record(byte type, int code, int value) {
+        if (mBroken) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (mBuffer != null && !put(type, code, value, now)) {
+            // Full, clock went back, or the file is too old for its time offsets.
+            mBuffer = null;
+            open(true);
+        }
+        if (mBuffer == null && mPending.size() < MAX_PENDING_RECORDS) {
+            mPending.add(new PendingRecord(type, code, value, now));
+        }
+    }
+
+    /** Returns the files to attach to a report, oldest first; either may not exist. */
+    public File[] getFiles() {
+        return new File[] { mPreviousFile, mCurrentFile };
+    }
+
+    /** Deletes everything recorded so far. The files are deleted in the background. */
+    public void clear() {
+        mGeneration++;
+        mBuffer = null;
+        mPending.clear();
+        sFileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mPreviousFile.delete();
+                mCurrentFile.delete();
+            }
+        });
+        open(false);
+    }
+
+    // Writes a record, unless the file has no room or the time doesn't fit.
+    private boolean put(byte type, int code, int value, long now) {
+        long time = now - mCreated;
+        if (mBuffer.remaining() < SignInTelemetryDecoder.RECORD_SIZE || time < 0
+                || time > Integer.MAX_VALUE) {
+            return false;
+        }
+        mBuffer.put(type);
+        mBuffer.put((byte) 0);
+        mBuffer.putShort((short) code);
+        mBuffer.putInt((int) time);
+        mBuffer.putInt(value);
+        return true;
+    }
+
+    // Maps the current file in the background, after rotating it if asked to.
+    private void open(final boolean rotate) {
+        if (mOpening) {
+            return;
+        }
+        mOpening = true;
+        final int generation = mGeneration;
+        sFileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final MappedFile file = startFile(rotate);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onOpened(file, generation);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onOpened(MappedFile file, int generation) {
+        mOpening = false;
+        if (generation != mGeneration) {
+            // Cleared meanwhile; open a fresh file.
+            open(false);
+            return;
+        }
+        if (file == null) {
+            mBroken = true;
+            mPending.clear();
+            return;
+        }
+        mBuffer = file.mBuffer;
+        mCreated = file.mCreated;
+        while (!mPending.isEmpty()) {
+            PendingRecord r = mPending.get(0);
+            if (!put(r.mType, r.mCode, r.mValue, r.mTime)) {
+                mBuffer = null;
+                open(true);
+                return;
+            }
+            mPending.remove(0);
+        }
+    }
+
+    // Maps the current file, after rotating it if asked to or if it can't be appended to.
+    // Called on the file thread.
+    private MappedFile startFile(boolean rotate) {
+        File dir = mCurrentFile.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(GameHelper.TAG, "SignInTelemetry: could not create " + dir);
+            return null;
+        }
+        if (!rotate && mCurrentFile.exists()) {
+            MappedFile existing = openExisting();
+            if (existing != null) {
+                return existing;
+            }
+        }
+        if (mCurrentFile.exists()) {
+            mPreviousFile.delete();
+            if (!mCurrentFile.renameTo(mPreviousFile)) {
+                mCurrentFile.delete();
+            }
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(mCurrentFile, "rw");
+            raf.setLength(mFileSize);
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    mFileSize);
+            long created = System.currentTimeMillis();
+            buf.putInt(SignInTelemetryDecoder.MAGIC);
+            buf.putShort(SignInTelemetryDecoder.VERSION);
+            buf.putShort((short) SignInTelemetryDecoder.RECORD_SIZE);
+            buf.putLong(created);
+            return new MappedFile(buf, created);
+        } catch (IOException ex) {
+            Log.w(GameHelper.TAG, "SignInTelemetry: could not create " + mCurrentFile + ": " + ex);
+            return null;
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+    // Maps the current file left by an earlier process and moves to the end of its records.
+    private MappedFile openExisting() {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(mCurrentFile, "rw");
+            if (raf.length() != mFileSize) {
+                return null;
+            }
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    mFileSize);
+            if (buf.getInt() != SignInTelemetryDecoder.MAGIC
+                    || buf.getShort() != SignInTelemetryDecoder.VERSION
+                    || buf.getShort() != SignInTelemetryDecoder.RECORD_SIZE) {
+                return null;
+            }
+            long created = buf.getLong();
+            while (buf.remaining() >= SignInTelemetryDecoder.RECORD_SIZE
+                    && buf.get(buf.position()) != SignInTelemetryDecoder.TYPE_NONE) {
+                buf.position(buf.position() + SignInTelemetryDecoder.RECORD_SIZE);
+            }
+            return new MappedFile(buf, created);
+        } catch (IOException ex) {
+            Log.w(GameHelper.TAG, "SignInTelemetry: could not open " + mCurrentFile + ": " + ex);
+            return null;
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile raf) {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException ex) {
+                // Nothing more we can do.
+            }
+        }
+    }
+}
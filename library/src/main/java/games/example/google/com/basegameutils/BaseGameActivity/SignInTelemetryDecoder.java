@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Defines the format of the files written by {@link SignInTelemetry}, and decodes them.
+ *
+ * Plain Java, so it also runs on a desktop JVM against files pulled from a device:
+ *
+ *   java -cp &lt;classes&gt; games.example.google.com.basegameutils.BaseGameActivity.\
+ *       SignInTelemetryDecoder telemetry.1 telemetry.0
+ *
+ * A file is a header followed by fixed-size records, big-endian:
+ *
+ *   header: magic int, version short, record size short, wall clock time of the file's
+ *           creation in ms long
+ *   record: type byte, reserved byte, code short, ms since the file's creation int, value int
+ *
+ * Files are created at their full size, so the records end at the first record of type 0.
+ */
+public final class SignInTelemetryDecoder {
+    static final int MAGIC = 0x4748544c; // "GHTL"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 12;
+
+    // Record types; code and value are 0 unless noted.
+    static final byte TYPE_NONE = 0;
+    static final byte TYPE_START = 1;
+    static final byte TYPE_STOP = 2;
+    static final byte TYPE_CONNECT = 3;
+    /** Value: ms since connecting, -1 if not known, e.g. for an adopted prewarmed client. */
+    static final byte TYPE_CONNECTED = 4;
+    /** Code: ConnectionResult error code; value: 1 if it has a resolution. */
+    static final byte TYPE_CONNECTION_FAILED = 5;
+    /** Code: ConnectionResult error code being resolved. */
+    static final byte TYPE_RESOLVE = 6;
+    /** Value: activity result code of the resolution. */
+    static final byte TYPE_RESOLVE_RESULT = 7;
+    /** Value: sign-in cancellations so far. */
+    static final byte TYPE_CANCELLED = 8;
+    /** Code: ConnectionResult error code; value: retry number. */
+    static final byte TYPE_RETRY = 9;
+    /** Code: suspension cause. */
+    static final byte TYPE_SUSPENDED = 10;
+    /** Code: service error code; value: activity result code. */
+    static final byte TYPE_GAVE_UP = 11;
+    static final byte TYPE_SIGN_OUT = 12;
+    /** A connect deferred because the device was offline or saving power. */
+    static final byte TYPE_DEFERRED = 13;
+
+    private static final String[] TYPE_NAMES = {
+            "NONE", "START", "STOP", "CONNECT", "CONNECTED", "CONNECTION_FAILED", "RESOLVE",
+            "RESOLVE_RESULT", "CANCELLED", "RETRY", "SUSPENDED", "GAVE_UP", "SIGN_OUT", "DEFERRED"
+    };
+
+    private SignInTelemetryDecoder() {
+    }
+
+    /** Decodes the given files in order and prints their records to stdout. */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: SignInTelemetryDecoder <file>...");
+            System.exit(1);
+        }
+        for (String arg : args) {
+            FileInputStream in = new FileInputStream(new File(arg));
+            try {
+                FileChannel channel = in.getChannel();
+                ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+                while (buf.hasRemaining() && channel.read(buf) >= 0) {
+                    // Keep reading.
+                }
+                buf.flip();
+                System.out.println("# " + arg);
+                decode(buf, System.out);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Prints the records of one file, one per line.
+     *
+     * @return the number of records
+     * @throws IOException if the data isn't a telemetry file
+     */
+    public static int decode(ByteBuffer buf, PrintStream out) throws IOException {
+        if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC) {
+            throw new IOException("Not a sign-in telemetry file");
+        }
+        short version = buf.getShort();
+        int recordSize = buf.getShort();
+        if (version != VERSION || recordSize < RECORD_SIZE) {
+            throw new IOException("Unsupported telemetry version " + version);
+        }
+        long created = buf.getLong();
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        int count = 0;
+        while (buf.remaining() >= recordSize) {
+            int start = buf.position();
+            byte type = buf.get();
+            if (type == TYPE_NONE) {
+                break;
+            }
+            buf.get();
+            short code = buf.getShort();
+            int time = buf.getInt();
+            int value = buf.getInt();
+            buf.position(start + recordSize);
+
+            out.println(format.format(new Date(created + time)) + " " + typeName(type)
+                    + " code=" + code + " value=" + value);
+            count++;
+        }
+        return count;
+    }
+
+    static String typeName(int type) {
+        return type >= 0 && type < TYPE_NAMES.length ? TYPE_NAMES[type] : "TYPE_" + type;
+    }
+}
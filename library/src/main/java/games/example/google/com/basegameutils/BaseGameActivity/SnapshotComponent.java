@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.drive.Drive;
+
+/** Connects the helper to Drive, where Saved Games are stored, for CLIENT_SNAPSHOT. */
+class SnapshotComponent implements GameHelperComponent {
+
+    @Override
+    public void addApi(GoogleApiClient.Builder builder, GameHelper helper) {
+        builder.addApi(Drive.API);
+        builder.addScope(Drive.SCOPE_APPFOLDER);
+    }
+
+    @Override
+    public void onSignOut(GoogleApiClient client) {
+        // Nothing to do; the helper drops its Saved Games state.
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.GamesStatusCodes;
+import com.google.android.gms.games.snapshot.Snapshot;
+import com.google.android.gms.games.snapshot.SnapshotMetadataChange;
+import com.google.android.gms.games.snapshot.Snapshots;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background pipeline for writing Saved Games (snapshots).
+ *
+ * Saves are serialized and written on a background thread, so the UI never waits on them.
+ * Saves to the same snapshot that arrive within the coalescing window are merged: only the most
+ * recent state is serialized and written, and all callers are told the outcome.
+ *
+ * A save that comes due while the helper is disconnected, e.g. the autosave of onPause() once
+ * onStop() disconnected, waits for the helper to connect again and is written then. Each save
+ * is written with the client it was made with, and the saves not yet started fail when the
+ * player signs out or switches accounts, so a save never lands in another player's snapshot.
+ *
+ * Requires the helper to be set up with {@link GameHelper#CLIENT_GAMES} and
+ * {@link GameHelper#CLIENT_SNAPSHOT}.
+ */
+public class SnapshotSaver {
+    // Default time to wait for further saves before writing.
+    static final long DEFAULT_COALESCE_WINDOW_MS = 2000;
+    // How many times we resolve a conflict before giving up on a save.
+    static final int MAX_CONFLICT_RESOLUTIONS = 3;
+
+    /**
+     * Produces the bytes to save. Called on the background thread, so it must not touch UI
+     * state, and it must be safe to call while the game keeps running.
+     */
+    public interface SnapshotSerializer {
+        byte[] serialize();
+    }
+
+    /** Told the outcome of a save. Called on the main thread. */
+    public interface SaveCallback {
+        /**
+         * @param name
+         *          name of the snapshot
+         * @param statusCode
+         *          a GamesStatusCodes status code, STATUS_OK on success
+         * @param bytesWritten
+         *          how many bytes were written into the snapshot
+         */
+        void onSaveFinished(String name, int statusCode, int bytesWritten);
+    }
+
+    // A save waiting for its coalescing window to pass, or for the helper to connect.
+    static final class PendingSave {
+        final String mName;
+        // The client of the player who saved.
+        final GoogleApiClient mClient;
+        String mDescription;
+        SnapshotSerializer mSerializer;
+        final ArrayList<SaveCallback> mCallbacks = new ArrayList<SaveCallback>();
+        // Whether it waits for the helper to connect rather than for a scheduled write.
+        boolean mWaitingForConnection = false;
+
+        PendingSave(String name, GoogleApiClient client) {
+            mName = name;
+            mClient = client;
+        }
+    }
+
+    private final GameHelper mHelper;
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Saves not yet started, by snapshot name. Guarded by itself.
+    private final HashMap<String, PendingSave> mPending = new HashMap<String, PendingSave>();
+    // Set by shutdown(); guarded by mPending.
+    private boolean mShutdown = false;
+    private volatile long mCoalesceWindowMs = DEFAULT_COALESCE_WINDOW_MS;
+
+    public SnapshotSaver(GameHelper helper) {
+        mHelper = helper;
+    }
+
+    /** Sets how long to wait for further saves to the same snapshot before writing. */
+    public void setCoalesceWindow(long millis) {
+        mCoalesceWindowMs = millis;
+    }
+
+    /**
+     * Schedules a save. If a save to the same snapshot is already waiting, this one replaces
+     * its content and both callbacks get the outcome of the single write.
+     *
+     * @param name
+     *          name of the snapshot
+     * @param description
+     *          description stored in the snapshot metadata, may be null
+     * @param serializer
+     *          produces the content, called on the background thread
+     * @param callback
+     *          told the outcome, may be null
+     */
+    public void save(String name, String description, SnapshotSerializer serializer,
+                     SaveCallback callback) {
+        synchronized (mPending) {
+            PendingSave pending = mPending.get(name);
+            if (pending == null) {
+                pending = new PendingSave(name, mHelper.getApiClient());
+                mPending.put(name, pending);
+                schedule(name, mCoalesceWindowMs);
+            } else {
+                mHelper.debugLog("SnapshotSaver: coalescing save of " + name);
+            }
+            pending.mDescription = description;
+            pending.mSerializer = serializer;
+            if (callback != null) {
+                pending.mCallbacks.add(callback);
+            }
+        }
+    }
+
+    /** Writes the saves that waited for a connection. The helper calls this once connected. */
+    void onConnected() {
+        synchronized (mPending) {
+            for (PendingSave pending : mPending.values()) {
+                if (pending.mWaitingForConnection) {
+                    pending.mWaitingForConnection = false;
+                    schedule(pending.mName, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fails the saves not yet started, with STATUS_CLIENT_RECONNECT_REQUIRED. The helper calls
+     * this when the player signs out or switches accounts.
+     */
+    void cancelPending() {
+        ArrayList<PendingSave> failed;
+        synchronized (mPending) {
+            failed = new ArrayList<PendingSave>(mPending.values());
+            mPending.clear();
+        }
+        for (PendingSave pending : failed) {
+            deliver(pending, GamesStatusCodes.STATUS_CLIENT_RECONNECT_REQUIRED, 0);
+        }
+    }
+
+    /**
+     * Stops the background thread once the saves already scheduled have run. Saves still
+     * waiting for a connection fail. No saves can be made afterwards. The helper calls this
+     * from onDestroy().
+     */
+    public void shutdown() {
+        ArrayList<PendingSave> failed = new ArrayList<PendingSave>();
+        synchronized (mPending) {
+            mShutdown = true;
+            Iterator<PendingSave> it = mPending.values().iterator();
+            while (it.hasNext()) {
+                PendingSave pending = it.next();
+                if (pending.mWaitingForConnection) {
+                    it.remove();
+                    failed.add(pending);
+                }
+            }
+        }
+        for (PendingSave pending : failed) {
+            deliver(pending, GamesStatusCodes.STATUS_CLIENT_RECONNECT_REQUIRED, 0);
+        }
+        mExecutor.shutdown();
+    }
+
+    // Called with mPending held.
+    private void schedule(final String name, long delayMs) {
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runSave(name);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void runSave(String name) {
+        PendingSave pending;
+        GoogleApiClient client;
+        synchronized (mPending) {
+            pending = mPending.get(name);
+            if (pending == null || pending.mWaitingForConnection) {
+                return;
+            }
+            client = pending.mClient;
+            if (!client.isConnected() && !mShutdown) {
+                mHelper.debugLog("SnapshotSaver: not connected, " + name
+                        + " waits for the next connection");
+                pending.mWaitingForConnection = true;
+                return;
+            }
+            mPending.remove(name);
+        }
+
+        int status;
+        int written = 0;
+        if (!client.isConnected()) {
+            Log.w(GameHelper.TAG, "SnapshotSaver: not connected, can't save " + name);
+            status = GamesStatusCodes.STATUS_CLIENT_RECONNECT_REQUIRED;
+        } else {
+            try {
+                byte[] data = pending.mSerializer.serialize();
+                status = write(client, pending, data);
+                written = status == GamesStatusCodes.STATUS_OK ? data.length : 0;
+            } catch (RuntimeException ex) {
+                Log.e(GameHelper.TAG, "SnapshotSaver: saving " + name + " failed", ex);
+                status = GamesStatusCodes.STATUS_INTERNAL_ERROR;
+            }
+        }
+        deliver(pending, status, written);
+    }
+
+    private int write(GoogleApiClient client, PendingSave pending, byte[] data) {
+        Snapshots.OpenSnapshotResult open = Games.Snapshots.open(client, pending.mName, true)
+                .await();
+        int resolutions = 0;
+        while (open.getStatus().getStatusCode() == GamesStatusCodes.STATUS_SNAPSHOT_CONFLICT) {
+            if (++resolutions > MAX_CONFLICT_RESOLUTIONS) {
+                // Leave the snapshot as it is on the server, and let go of the one we opened.
+                Games.Snapshots.discardAndClose(client, open.getSnapshot());
+                return GamesStatusCodes.STATUS_SNAPSHOT_CONFLICT;
+            }
+            // We are about to overwrite the content anyway, so any side of the conflict will do.
+            mHelper.debugLog("SnapshotSaver: resolving conflict on " + pending.mName);
+            open = Games.Snapshots.resolveConflict(client, open.getConflictId(),
+                    open.getSnapshot()).await();
+        }
+        if (!open.getStatus().isSuccess()) {
+            return open.getStatus().getStatusCode();
+        }
+
+        Snapshot snapshot = open.getSnapshot();
+        snapshot.writeBytes(data);
+        mHelper.debugLog("SnapshotSaver: " + pending.mName + ": writing " + data.length
+                + " bytes");
+
+        SnapshotMetadataChange.Builder change = new SnapshotMetadataChange.Builder();
+        if (pending.mDescription != null) {
+            change.setDescription(pending.mDescription);
+        }
+        return Games.Snapshots.commitAndClose(client, snapshot, change.build()).await()
+                .getStatus().getStatusCode();
+    }
+
+    private void deliver(final PendingSave pending, final int status, final int written) {
+        if (pending.mCallbacks.isEmpty()) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (SaveCallback callback : pending.mCallbacks) {
+                    callback.onSaveFinished(pending.mName, status, written);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2014 SamDiDe.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package games.example.google.com.basegameutils.BaseGameActivity;
+
+import android.util.Log;
+
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.multiplayer.turnbased.LoadMatchesResponse;
+import com.google.android.gms.games.multiplayer.turnbased.OnTurnBasedMatchUpdateReceivedListener;
+import com.google.android.gms.games.multiplayer.turnbased.TurnBasedMatch;
+import com.google.android.gms.games.multiplayer.turnbased.TurnBasedMatchBuffer;
+import com.google.android.gms.games.multiplayer.turnbased.TurnBasedMultiplayer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * Local copy of the player's turn-based matches, kept up to date incrementally.
+ *
+ * The match list is loaded in full on the first connection, after clear() and when the game
+ * calls reload(). While connected, the store applies the match update notifications and the
+ * match of the connection hint. It is kept across reconnects: on reconnecting, only the matches
+ * still in progress are loaded again, one by one, as Play services has no call that lists just
+ * the versions of the matches. Matches are kept by ID with their version; a match is only frozen
+ * and reported as changed when its version is newer than the one held. A match started on
+ * another device while disconnected shows up with its first update or the next reload().
+ *
+ * The store registers itself as the client's match update listener, which replaces any listener
+ * the game registered itself; listen to the store instead.
+ *
+ * Use from the main thread; listeners are called there as well.
+ */
+public class TurnBasedMatchStore implements OnTurnBasedMatchUpdateReceivedListener {
+    // The turn statuses the store keeps matches of.
+    static final int[] STATUSES = {
+            TurnBasedMatch.MATCH_TURN_STATUS_MY_TURN,
+            TurnBasedMatch.MATCH_TURN_STATUS_THEIR_TURN,
+            TurnBasedMatch.MATCH_TURN_STATUS_COMPLETE
+    };
+
+    /** Receives the changes to the store. */
+    public interface Listener {
+        void onMatchAdded(TurnBasedMatch match);
+
+        /** Called when a newer version of a match was received. */
+        void onMatchUpdated(TurnBasedMatch previous, TurnBasedMatch match);
+
+        void onMatchRemoved(TurnBasedMatch match);
+    }
+
+    private final GameHelper mHelper;
+    private final HashMap<String, TurnBasedMatch> mMatches = new HashMap<String, TurnBasedMatch>();
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+    // Matches updated or removed by notifications while a reload was in flight, which the
+    // reload's possibly older result must not undo.
+    private final HashSet<String> mUpdatedDuringLoad = new HashSet<String>();
+    private final HashSet<String> mRemovedDuringLoad = new HashSet<String>();
+    private boolean mLoading = false;
+    // Whether the full list was loaded since the store was created or cleared.
+    private boolean mLoaded = false;
+    // Bumped by clear(), so that a reload started before isn't applied.
+    private int mEpoch = 0;
+
+    public TurnBasedMatchStore(GameHelper helper) {
+        mHelper = helper;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /** Returns a match, or null if the store doesn't have it. */
+    public TurnBasedMatch getMatch(String matchId) {
+        return mMatches.get(matchId);
+    }
+
+    /** Returns all matches. */
+    public Collection<TurnBasedMatch> getMatches() {
+        return Collections.unmodifiableCollection(mMatches.values());
+    }
+
+    /** Returns the matches with the given TurnBasedMatch.MATCH_TURN_STATUS_* status. */
+    public ArrayList<TurnBasedMatch> getMatches(int turnStatus) {
+        ArrayList<TurnBasedMatch> matches = new ArrayList<TurnBasedMatch>();
+        for (TurnBasedMatch match : mMatches.values()) {
+            if (match.getTurnStatus() == turnStatus) {
+                matches.add(match);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Called by the helper once connected: listens to match updates, applies the match of the
+     * connection hint and loads the list, or refreshes the matches in progress if it has it.
+     */
+    void onConnected(TurnBasedMatch hintMatch) {
+        Games.TurnBasedMultiplayer.registerMatchUpdateListener(mHelper.getApiClient(), this);
+        if (hintMatch != null) {
+            onTurnBasedMatchReceived(hintMatch);
+        }
+        if (mLoaded) {
+            refresh();
+        } else {
+            reload();
+        }
+    }
+
+    // Loads the matches in progress again, which may have had updates while we didn't listen.
+    private void refresh() {
+        final int epoch = mEpoch;
+        for (TurnBasedMatch match : new ArrayList<TurnBasedMatch>(mMatches.values())) {
+            if (match.getTurnStatus() == TurnBasedMatch.MATCH_TURN_STATUS_COMPLETE) {
+                continue;
+            }
+            final String matchId = match.getMatchId();
+            mHelper.getRateLimiter().submit(GamesApiRateLimiter.CATEGORY_MULTIPLAYER,
+                    GamesApiRateLimiter.PRIORITY_DEFAULT, new Runnable() {
+                @Override
+                public void run() {
+                    if (epoch != mEpoch || !mMatches.containsKey(matchId)) {
+                        return;
+                    }
+                    Games.TurnBasedMultiplayer.loadMatch(mHelper.getApiClient(), matchId)
+                            .setResultCallback(
+                                    new ResultCallback<TurnBasedMultiplayer.LoadMatchResult>() {
+                                @Override
+                                public void onResult(TurnBasedMultiplayer.LoadMatchResult result) {
+                                    onMatchLoaded(epoch, matchId, result);
+                                }
+                            });
+                }
+            });
+        }
+    }
+
+    /** Reloads the match list, reporting what changed since the store last had it. */
+    public void reload() {
+        if (mLoading) {
+            return;
+        }
+        mLoading = true;
+        mUpdatedDuringLoad.clear();
+        mRemovedDuringLoad.clear();
+        final int epoch = mEpoch;
+        mHelper.getRateLimiter().submit(GamesApiRateLimiter.CATEGORY_MULTIPLAYER,
+                GamesApiRateLimiter.PRIORITY_USER_VISIBLE, new Runnable() {
+            @Override
+            public void run() {
+                if (epoch != mEpoch) {
+                    return;
+                }
+                Games.TurnBasedMultiplayer.loadMatchesByStatus(mHelper.getApiClient(), STATUSES)
+                        .setResultCallback(
+                                new ResultCallback<TurnBasedMultiplayer.LoadMatchesResult>() {
+                            @Override
+                            public void onResult(TurnBasedMultiplayer.LoadMatchesResult result) {
+                                onLoaded(epoch, result);
+                            }
+                        });
+            }
+        });
+    }
+
+    /** Empties the store, e.g. when the player signs out. Doesn't report the removals. */
+    public void clear() {
+        mEpoch++;
+        mLoading = false;
+        mLoaded = false;
+        mMatches.clear();
+    }
+
+    @Override
+    public void onTurnBasedMatchReceived(TurnBasedMatch match) {
+        if (mLoading) {
+            mUpdatedDuringLoad.add(match.getMatchId());
+            mRemovedDuringLoad.remove(match.getMatchId());
+        }
+        apply(match);
+    }
+
+    @Override
+    public void onTurnBasedMatchRemoved(String matchId) {
+        if (mLoading) {
+            mRemovedDuringLoad.add(matchId);
+            mUpdatedDuringLoad.remove(matchId);
+        }
+        TurnBasedMatch removed = mMatches.remove(matchId);
+        if (removed != null) {
+            for (Listener listener : new ArrayList<Listener>(mListeners)) {
+                listener.onMatchRemoved(removed);
+            }
+        }
+    }
+
+    // Stores a match if it's new or newer than the one held. Freezes it only then.
+    private void apply(TurnBasedMatch match) {
+        TurnBasedMatch previous = mMatches.get(match.getMatchId());
+        if (previous != null && previous.getVersion() >= match.getVersion()) {
+            return;
+        }
+        TurnBasedMatch frozen = match.freeze();
+        mMatches.put(frozen.getMatchId(), frozen);
+        for (Listener listener : new ArrayList<Listener>(mListeners)) {
+            if (previous == null) {
+                listener.onMatchAdded(frozen);
+            } else {
+                listener.onMatchUpdated(previous, frozen);
+            }
+        }
+    }
+
+    void onLoaded(int epoch, TurnBasedMultiplayer.LoadMatchesResult result) {
+        LoadMatchesResponse response = result.getMatches();
+        try {
+            if (epoch != mEpoch) {
+                return;
+            }
+            mLoading = false;
+            if (!result.getStatus().isSuccess() || response == null) {
+                Log.w(GameHelper.TAG, "TurnBasedMatchStore: could not load matches, status "
+                        + result.getStatus().getStatusCode());
+                return;
+            }
+            mLoaded = true;
+
+            HashSet<String> loaded = new HashSet<String>();
+            applyAll(response.getMyTurnMatches(), loaded);
+            applyAll(response.getTheirTurnMatches(), loaded);
+            applyAll(response.getCompletedMatches(), loaded);
+
+            // Whatever isn't in the list anymore was dismissed or expired meanwhile.
+            ArrayList<TurnBasedMatch> removed = new ArrayList<TurnBasedMatch>();
+            Iterator<TurnBasedMatch> it = mMatches.values().iterator();
+            while (it.hasNext()) {
+                TurnBasedMatch match = it.next();
+                if (!loaded.contains(match.getMatchId())
+                        && !mUpdatedDuringLoad.contains(match.getMatchId())) {
+                    it.remove();
+                    removed.add(match);
+                }
+            }
+            for (TurnBasedMatch match : removed) {
+                for (Listener listener : new ArrayList<Listener>(mListeners)) {
+                    listener.onMatchRemoved(match);
+                }
+            }
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    void onMatchLoaded(int epoch, String matchId, TurnBasedMultiplayer.LoadMatchResult result) {
+        if (epoch != mEpoch) {
+            return;
+        }
+        TurnBasedMatch match = result.getMatch();
+        if (!result.getStatus().isSuccess() || match == null) {
+            // Gone or unreachable; the next reload() sorts it out.
+            Log.w(GameHelper.TAG, "TurnBasedMatchStore: could not load match " + matchId
+                    + ", status " + result.getStatus().getStatusCode());
+            return;
+        }
+        apply(match);
+    }
+
+    private void applyAll(TurnBasedMatchBuffer buffer, HashSet<String> loaded) {
+        if (buffer == null) {
+            return;
+        }
+        for (int i = 0; i < buffer.getCount(); i++) {
+            TurnBasedMatch match = buffer.get(i);
+            if (mRemovedDuringLoad.contains(match.getMatchId())) {
+                continue;
+            }
+            loaded.add(match.getMatchId());
+            apply(match);
+        }
+    }
+}
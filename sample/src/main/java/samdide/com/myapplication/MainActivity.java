@@ -0,0 +1,49 @@
+package samdide.com.myapplication;
+
+import android.os.Bundle;
+import android.view.View;
+import android.widget.TextView;
+
+import games.example.google.com.basegameutils.BaseGameActivity.BaseGameActivity;
+
+/**
+ * Minimal game screen: shows the sign-in status, tap it to sign in or out.
+ */
+public class MainActivity extends BaseGameActivity {
+    private TextView mStatus;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mStatus = new TextView(this);
+        mStatus.setText(R.string.signed_out);
+        mStatus.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (isSignedIn()) {
+                    signOut();
+                    onSignInFailed();
+                } else {
+                    beginUserInitiatedSignIn();
+                }
+            }
+        });
+        setContentView(mStatus);
+    }
+
+    // A prewarmed client may already be connected while super.onCreate() sets up the helper,
+    // before our views exist; onStart() reports it again.
+    @Override
+    public void onSignInFailed() {
+        if (mStatus != null) {
+            mStatus.setText(R.string.signed_out);
+        }
+    }
+
+    @Override
+    public void onSignInSucceeded() {
+        if (mStatus != null) {
+            mStatus.setText(R.string.signed_in);
+        }
+    }
+}
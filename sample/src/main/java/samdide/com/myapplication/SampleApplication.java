@@ -0,0 +1,17 @@
+package samdide.com.myapplication;
+
+import android.app.Application;
+
+import games.example.google.com.basegameutils.BaseGameActivity.GameHelper;
+import games.example.google.com.basegameutils.BaseGameActivity.GameHelperPrewarmer;
+
+/**
+ * Starts connecting to Play Games while the first Activity is still being created.
+ */
+public class SampleApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        GameHelperPrewarmer.prewarm(this, GameHelper.CLIENT_GAMES);
+    }
+}